@@ -1,10 +1,7 @@
 package dut.ir.CRFJava;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
 /**
  * FileName： AbstractCRF.java <br/>
@@ -19,68 +16,55 @@ import java.util.Map.Entry;
 public abstract class AbstractCRF {
 	/**
 	 * 采用与CRF++相同的数据格式，具体参见：<a>http://crfpp.googlecode.com/svn/trunk/doc/index.html#usage</a>
-	 * 每个句子用二维数组表示，包含标签列 <br/>
-	 * 在CRFTrainer中，其包含所有的句子 <br/>
+	 * 所有句子以整数符号的形式存储，包含标签列 <br/>
+	 * 在CRFTrainer中，其包含所有的句子，生成corpus后即被释放 <br/>
 	 * 在CRFTagger中，只包含一个句子，标记完成后再加载另一个句子<br/>
 	 */
-	public ArrayList<String[][]> sentences;
-	
-	/**
-	 * sentences中每个句子对应的标签数组，注：标签使用其索引表示<br/>
-	 * 与sentences相对应
-	 */
-	public ArrayList<Integer[]> sentenceLabels;
-	
+	public TokenCorpus tokens;
 
 	/**
-	 * 把所有句子所有单词的状态特征依次存入该数组，状态特征使用其在CRFParams.funWeight数组中的首地址表示
+	 * 编码后的特征语料，记录tokens中所有单词的特征、标签以及句子和单词的偏移
 	 */
-	public int uFeatureArray[];
+	public FeatureCorpus corpus;
 	
 	/**
-	 * 把所有句子所有单词的转移特征依次存入该数组，转移特征使用其在CRFParams.funWeight数组中的首地址表示
+	 * 模型文件 <br/>
+	 * CRFTrainer将训练得到的CRFParams实例写入该文件  <br/>
+	 * CRFTagger从该文件中读取训练得到的CRFParmas实例
 	 */
-	public int bFeatureArray[];
+	public String modelFile;
 	
 	/**
-	 * sentences中每个句子对应一个数组，记录句子中每个单词所有的状态特征在uFeatureArray中的起始地址
-	 */
-	public ArrayList<Integer[]> uFeatureStart;
-	/**
-	 * sentences中每个句子对应一个数组，记录句子中每个单词所有的状态特征在uFeatureArray中的结束地址，与uFeatureStart对应
+	 * CRF模型参数
 	 */
-	public ArrayList<Integer[]> uFeatureEnd;
+	public CRFParams crfParams;
 	
 	/**
-	 * sentences中每个句子对应一个数组，记录句子中每个单词所有的转移特征在bFeatureArray中的起始地址，同uFeatureStart
+	 * 由crfParams.templates编译得到的特征模板，顺序与crfParams.templates的遍历顺序相同
 	 */
-	public ArrayList<Integer[]> bFeatureStart;
-	/**
-	 * sentences中每个句子对应一个数组，记录句子中每个单词所有的转移特征在bFeatureArray中的结束地址，与bFeatureStart对应，同bFeatureEnd
-	 */
-	public ArrayList<Integer[]> bFeatureEnd;// 同bFeatureEnd
+	public FeatureTemplate[] featureTemplates;
 	
 	/**
-	 * 所有单词的状态特征总数，也就是uFeatureArray的大小
+	 * 与位置无关的转移特征（如模板B）在funWeight中的首地址，按其在bFeatureArray中出现的顺序排列 <br/>
+	 * 如果某个位置的转移特征恰好就是这些特征，则该位置的转移分数直接取自transScore
 	 */
-	public int uFeatureCount = 0;
+	public int[] staticBFeatures;
 	
 	/**
-	 * 所有单词的庄毅特征总数，也就是bFeatureArray的大小
+	 * 转移分数缓存，K * K，transScore[m * K + n]为staticBFeatures中所有特征在前一标签为m、当前标签为n时的权值之和 <br/>
+	 * 只与funWeight有关，funWeight改变后需要调用initTransitionCache()重新计算
 	 */
-	public int bFeatureCount = 0;
+	public double[] transScore;
 	
 	/**
-	 * 模型文件 <br/>
-	 * CRFTrainer将训练得到的CRFParams实例写入该文件  <br/>
-	 * CRFTagger从该文件中读取训练得到的CRFParmas实例
+	 * exp(transScore - transMax)，computeMs中使用
 	 */
-	public String modelFile;
+	public double[] transExp;
 	
 	/**
-	 * CRF模型参数
+	 * transScore中的最大值
 	 */
-	public CRFParams crfParams;
+	public double transMax;
 	
 	public AbstractCRF(){
 		
@@ -88,340 +72,369 @@ public abstract class AbstractCRF {
 	
 	/**
 	 * 根据当前参数，标记句子
-	 * @param sid 句子在sentences数组中的索引
+	 * @param sid 句子在corpus中的索引
 	 * @return 标记数组
 	 */
 	public int[] viterbi(int sid){
-		int[] sLabels = new int[sentences.get(sid).length];
-		
-		int[][] tag = new int[crfParams.K][sentences.get(sid).length];
-		double[][] delta = new double[crfParams.K][sentences.get(sid).length];
-		ArrayList<double[][]> Ms = this.computeMs(sid);
-		double maxP = -1;
-		int cur = -1;
+		Lattice lattice = new Lattice(crfParams.K);
+		return Arrays.copyOf(this.viterbi(sid, lattice), lattice.length);
+	}
+	
+	/**
+	 * 根据当前参数，使用给定的工作区标记句子，不分配内存 <br/>
+	 * 在分数空间中计算：delta[i][n] = state[i][n] + max_m(delta[i-1][m] + trans[i][m][n])，分数直接由funWeight累加得到，
+	 * 不计算M矩阵，不调用Math.exp，对任意长度的句子都不会下溢；转移分数与位置无关时直接使用transScore
+	 * @param sid 句子在corpus中的索引
+	 * @param lattice 工作区
+	 * @return 标记数组，即lattice.path，只有前lattice.length个元素有效
+	 */
+	public int[] viterbi(int sid, Lattice lattice){
+		int K = crfParams.K;
+		int length = corpus.length(sid);
+		int first = corpus.sentenceStart[sid];// 句子第一个单词的编号
+		lattice.reset(length);
+		double[] delta = lattice.delta;
+		int[] tag = lattice.backPtr;
+		int[] sLabels = lattice.path;
 		
-		for(int j = 0; j < sentences.get(sid).length; j++){
-			double[][] M = Ms.get(j);
-			for(int i = 0; i < crfParams.K; i++){
-				if(j == 0){
-					tag[i][j] = -1;
-					delta[i][j] = M[0][i];
+		for(int i = 0; i < length; i++){
+			int base = i * K;
+			if(i == 0){
+				for(int n = 0; n < K; n++){
+					delta[n] = 0;
+					tag[n] = -1;
 				}
-				else{
-					maxP = -1;
-					cur = -1;
-					for(int k = 0; k < crfParams.K; k++){
-						if(delta[k][j-1] * M[k][i] > maxP){
-							maxP = delta[k][j-1] * M[k][i];
-							cur = k;
+			}
+			else{
+				double[] trans = this.isStaticTrans(first + i) ? transScore : this.transScores(first + i, lattice.trans);
+				int pre = base - K;
+				for(int n = 0; n < K; n++){
+					double maxScore = delta[pre] + trans[n];
+					int cur = 0;
+					for(int m = 1; m < K; m++){
+						double score = delta[pre + m] + trans[m * K + n];
+						if(score > maxScore){
+							maxScore = score;
+							cur = m;
 						}
 					}
-					delta[i][j] = maxP;
-					tag[i][j] = cur;
+					delta[base + n] = maxScore;
+					tag[base + n] = cur;
 				}
 			}
+			this.addStateScores(first + i, delta, base);
 		}
-		int maxK = -1;
-		maxP = -1;
-		for(int k = 0; k < crfParams.K;k++){
-			if(delta[k][sentences.get(sid).length-1] > maxP){
-				maxP = delta[k][sentences.get(sid).length-1];
+		
+		int last = (length - 1) * K;
+		int maxK = 0;
+		for(int k = 1; k < K; k++){
+			if(delta[last + k] > delta[last + maxK])
 				maxK = k;
-			}
 		}
 		
-		for(int i = sentences.get(sid).length-1; i >= 0; i--){
-			if(i == sentences.get(sid).length-1){
-				sLabels[sentences.get(sid).length-1] = maxK;
-			}
-			else{
-				sLabels[i] = tag[maxK][i+1];
-				maxK = sLabels[i];
-			}
+		for(int i = length-1; i >= 0; i--){
+			sLabels[i] = maxK;
+			maxK = tag[i * K + maxK];
 		}
 		
 		return sLabels;
 	}
 	
+	/**
+	 * 把第t个单词处每个标签的状态特征函数权值之和加到scores[off, off + K)，每个特征只遍历一次
+	 * @param t 单词在corpus中的编号
+	 */
+	public void addStateScores(int t, double[] scores, int off) {
+		int K = crfParams.K;
+		double[] w = crfParams.funWeight;
+		int[] uFeatureArray = corpus.uFeatureArray;
+		for (int k = corpus.uFeatureStart[t], end = corpus.uFeatureStart[t + 1]; k < end; k++) {
+			int addr = uFeatureArray[k];
+			if (addr >= 0) {
+				for (int n = 0; n < K; n++)
+					scores[off + n] += w[addr + n];
+			} else {
+				for (int n = 0; n < K; n++)
+					scores[off + n] -= w[~addr + n];
+			}
+		}
+	}
+	
+	/**
+	 * 计算第t个单词处的转移分数，trans[m * K + n]为前一标签为m、当前标签为n时所有转移特征函数的权值之和
+	 * @param t 单词在corpus中的编号
+	 * @param trans K * K的缓冲区
+	 * @return trans
+	 */
+	public double[] transScores(int t, double[] trans) {
+		int KK = crfParams.K * crfParams.K;
+		double[] w = crfParams.funWeight;
+		int[] bFeatureArray = corpus.bFeatureArray;
+		Arrays.fill(trans, 0, KK, 0);
+		for (int k = corpus.bFeatureStart[t], end = corpus.bFeatureStart[t + 1]; k < end; k++) {
+			int addr = bFeatureArray[k];
+			if (addr >= 0) {
+				for (int mn = 0; mn < KK; mn++)
+					trans[mn] += w[addr + mn];
+			} else {
+				for (int mn = 0; mn < KK; mn++)
+					trans[mn] -= w[~addr + mn];
+			}
+		}
+		return trans;
+	}
+	
 	
 	/**
-	 * 计算句子在每个位置的M矩阵 <br/> 在每个位置，M是K * K的矩阵
+	 * 根据当前的funWeight计算转移分数缓存transScore和transExp，每次funWeight改变后调用一次
+	 */
+	public void initTransitionCache() {
+		int K = crfParams.K;
+		if (staticBFeatures == null) {
+			IntList addrs = new IntList();
+			KeyBuilder key = new KeyBuilder();
+			for (FeatureTemplate template : featureTemplates) {// 与initCorpus相同的模板顺序
+				if (template.unigram || !template.isStatic())
+					continue;
+				template.feature(null, 0, 0, 0, key);
+				int addr = crfParams.featureAddr(key, false);
+				if (addr != CRFParams.NO_FEATURE)
+					addrs.add(addr);
+			}
+			staticBFeatures = addrs.toArray();
+			transScore = new double[K * K];
+			transExp = new double[K * K];
+		}
+
+		Arrays.fill(transScore, 0);
+		for (int f = 0; f < staticBFeatures.length; f++) {
+			int addr = staticBFeatures[f];
+			if (addr >= 0) {
+				for (int mn = 0; mn < K * K; mn++)
+					transScore[mn] += crfParams.funWeight[addr + mn];
+			} else {// 特征哈希模式下符号为负的特征
+				for (int mn = 0; mn < K * K; mn++)
+					transScore[mn] -= crfParams.funWeight[~addr + mn];
+			}
+		}
+		transMax = Double.NEGATIVE_INFINITY;
+		for (int mn = 0; mn < K * K; mn++)
+			transMax = Math.max(transMax, transScore[mn]);
+		for (int mn = 0; mn < K * K; mn++)
+			transExp[mn] = Math.exp(transScore[mn] - transMax);
+	}
+	
+	/**
+	 * 判断第t个单词处的转移特征是否恰好为staticBFeatures，如果是，其转移分数可以直接使用transScore
+	 * @param t 单词在corpus中的编号
+	 * @return 是否可以使用转移分数缓存
+	 */
+	public boolean isStaticTrans(int t) {
+		if (transScore == null || staticBFeatures.length == 0)
+			return false;
+		int start = corpus.bFeatureStart[t];
+		if (corpus.bFeatureStart[t + 1] - start != staticBFeatures.length)
+			return false;
+		for (int f = 0; f < staticBFeatures.length; f++) {
+			if (corpus.bFeatureArray[start + f] != staticBFeatures[f])
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 计算句子在每个位置的M矩阵，结果存入lattice.ms <br/> 在每个位置，M是K * K的矩阵 <br/>
+	 * 为避免Math.exp溢出，位置i处所有的特征加权和都减去其最大值lattice.shift[i]后再取指数，即M[m][n] = exp(score[m][n] - shift[i])，
+	 * 这样每个位置M矩阵的最大元素不超过1，真实的归一化因子为：log(zeta) = log(zeta') + sum(shift)
 	 * 
 	 * @param sid
-	 * @return 返回所有M矩阵组成的列表
+	 * @param lattice 工作区，按句子长度重置
 	 */
-	public ArrayList<double[][]> computeMs(int sid) {
-		ArrayList<double[][]> Ms = new ArrayList<double[][]>();
-
-		Integer[] uStart = uFeatureStart.get(sid);
-		Integer[] uEnd = uFeatureEnd.get(sid);
-		Integer[] bStart = bFeatureStart.get(sid);
-		Integer[] bEnd = bFeatureEnd.get(sid);
+	public void computeMs(int sid, Lattice lattice) {
+		int K = crfParams.K;
+		int length = corpus.length(sid);
+		int first = corpus.sentenceStart[sid];// 句子第一个单词的编号
+		lattice.reset(length);
+		double[] ms = lattice.ms;
 
 		double state = 0;// 在位置i处，状态特征的加权和
 		double trans = 0;// 在位置i出，转移特征的加权和
-		int addr = 0;// 该特征所对应的特征函数列表的起始地址
+		double max = 0;// 在位置i处，特征加权和的最大值
 
-		for (int i = 0; i < sentences.get(sid).length; i++) {// 依此遍历每个单词
-			double[][] M = new double[crfParams.K][crfParams.K];
+		for (int i = 0; i < length; i++) {// 依此遍历每个单词
+			int base = i * K * K;// 位置i处M矩阵的起始地址
+			max = Double.NEGATIVE_INFINITY;
 			if (i == 0) {// 第一个单词位置，单独处理
-				for (int n = 0; n < crfParams.K; n++) {
-					state = this.sumOfuFunctions(uStart, uEnd, i, n);
-					M[0][n] = Math.exp(state);
+				for (int n = 0; n < K; n++) {
+					state = this.sumOfuFunctions(first + i, n);
+					ms[n] = state;
+					if (state > max)
+						max = state;
+				}
+				for (int n = 0; n < K; n++) {
+					ms[n] = Math.exp(ms[n] - max);
+				}
+			} else if (this.isStaticTrans(first + i)) {// 转移分数与位置无关：M[m][n] = exp(state[n]) * exp(transScore[m][n])
+				for (int n = 0; n < K; n++) {
+					state = this.sumOfuFunctions(first + i, n);
+					ms[base + n] = state;
+					if (state > max)
+						max = state;
 				}
-				Ms.add(M);
+				for (int n = 0; n < K; n++) {
+					ms[base + n] = Math.exp(ms[base + n] - max);
+				}
+				for (int m = K - 1; m >= 0; m--) {
+					for (int n = 0; n < K; n++) {
+						ms[base + m * K + n] = ms[base + n] * transExp[m * K + n];
+					}
+				}
+				max += transMax;
 			} else {
-				for (int n = 0; n < crfParams.K; n++) {// 当前位置的标签序号
-					state = this.sumOfuFunctions(uStart, uEnd, i, n);
-					for (int m = 0; m < crfParams.K; m++) {
-						trans = this.sumOfbFuntions(bStart, bEnd, i, m, n);
-
-						M[m][n] = Math.exp(state + trans);
+				for (int n = 0; n < K; n++) {// 当前位置的标签序号
+					state = this.sumOfuFunctions(first + i, n);
+					for (int m = 0; m < K; m++) {
+						trans = this.sumOfbFuntions(first + i, m, n);
+
+						ms[base + m * K + n] = state + trans;
+						if (state + trans > max)
+							max = state + trans;
 					}
 				}
-				Ms.add(M);
+				for (int mn = 0; mn < K * K; mn++) {
+					ms[base + mn] = Math.exp(ms[base + mn] - max);
+				}
 			}
+			lattice.shift[i] = max;
 		}
-		return Ms;
 	}
 	
 	/**
-	 * 求某个句子第i个单词出满足的所有状态特征函数的权值之和
-	 * @param uStart 句子在uFeatureStart中的项，记录每个单词在uFeatureArray中的起始地址
-	 * @param uEnd 句子在uFeatureEnd中的项，记录每个单词在uFeatureArray中的结束地址
-	 * @param i 第i个单词
+	 * 求第t个单词处满足的所有状态特征函数的权值之和 <br/>
+	 * 特征哈希模式下，特征地址为负数~addr时表示该特征的取值为-1
+	 * @param t 单词在corpus中的编号
 	 * @param curLabel 当前的标记
-	 * @return 句子第i个单词出满足的所有状态特征函数的权值之和
+	 * @return 第t个单词处满足的所有状态特征函数的权值之和
 	 */
-	public double sumOfuFunctions(Integer[] uStart, Integer[] uEnd, int i,
-			int curLabel) {
+	public double sumOfuFunctions(int t, int curLabel) {
 		double result = 0;
-		int addr = 0;
-		for (int k = uStart[i]; k >= 0 && k <= uEnd[i]; k++) {
-			addr = uFeatureArray[k] + curLabel;
-			result += crfParams.funWeight[addr];
+		int[] uFeatureArray = corpus.uFeatureArray;
+		for (int k = corpus.uFeatureStart[t], end = corpus.uFeatureStart[t + 1]; k < end; k++) {
+			int addr = uFeatureArray[k];
+			if (addr >= 0)
+				result += crfParams.funWeight[addr + curLabel];
+			else
+				result -= crfParams.funWeight[~addr + curLabel];
 		}
 
 		return result;
 	}
 	
 	/**
-	 * 求某个句子第i个单词出满足的所有转移特征函数的权值之和
-	 * @param bStart 句子在bFeatureStart中的项，记录每个单词在bFeatureArray中的起始地址
-	 * @param bEnd 句子在bFeatureEnd中的项，记录每个单词在bFeatureArray中的结束地址
-	 * @param i 第i个单词
-	 * @param preLabel 第i-1个单词的标记
+	 * 求第t个单词处满足的所有转移特征函数的权值之和
+	 * @param t 单词在corpus中的编号
+	 * @param preLabel 第t-1个单词的标记
 	 * @param curLabel 当前的标记
-	 * @return 求某个句子第i个单词出满足的所有转移特征函数的权值之和
+	 * @return 第t个单词处满足的所有转移特征函数的权值之和
 	 */
-	public double sumOfbFuntions(Integer[] bStart, Integer[] bEnd, int i,
-			int preLabel, int curLabel) {
+	public double sumOfbFuntions(int t, int preLabel, int curLabel) {
 		double result = 0;
-		int addr = 0;
-		for (int k = bStart[i]; k >= 0 && k <= bEnd[i]; k++) {
-			addr = bFeatureArray[k] + crfParams.K * preLabel + curLabel;
-			result += crfParams.funWeight[addr];
+		int[] bFeatureArray = corpus.bFeatureArray;
+		int offset = crfParams.K * preLabel + curLabel;
+		for (int k = corpus.bFeatureStart[t], end = corpus.bFeatureStart[t + 1]; k < end; k++) {
+			int addr = bFeatureArray[k];
+			if (addr >= 0)
+				result += crfParams.funWeight[addr + offset];
+			else
+				result -= crfParams.funWeight[~addr + offset];
 		}
 		return result;
 	}
 	
 	/**
-	 * 生成uFeatureArray和bFeatureArray后，初始化uFeatureStart，uFeatureEnd，bFeatureStart和bFeatureEnd <br/>
-	 * 如果某个位置没有状态或者转移特征，则记为-1
-	 * @param allSentences
-	 * @param allSentencesLabels
+	 * 编译crfParams.templates，得到featureTemplates
 	 */
-	public void initWordFeatureInfo(ArrayList<String[][]> allSentences,ArrayList<Integer[]> allSentencesLabels) {
-		uFeatureStart = new ArrayList<Integer[]>();
-		uFeatureEnd = new ArrayList<Integer[]>();
-		bFeatureStart = new ArrayList<Integer[]>();
-		bFeatureEnd = new ArrayList<Integer[]>();
-
-		String feature;
-		int uIndex = 0;// uFeatureArray的索引
-		int bIndex = 0;//
-
-		int uStartIndex = -1;
-		int bStartIndex = -1;
-
-		for (int i = 0; i < allSentences.size(); i++) {// 遍历每个句子
-			String[][] sentence = allSentences.get(i);// 句子
-			Integer[] curLabels = allSentencesLabels.get(i);// 当前句子的标签
-
-			Integer[] uStart = new Integer[curLabels.length];
-			Integer[] uEnd = new Integer[curLabels.length];
-			Integer[] bStart = new Integer[curLabels.length];
-			Integer[] bEnd = new Integer[curLabels.length];
-
-			for (int m = 0; m < sentence.length; m++) {// 遍历每个单词
-				uStartIndex = -1;
-				bStartIndex = -1;
-
-				Iterator<Entry<String, Integer[]>> it = crfParams.templates.entrySet()
-						.iterator();
-				while (it.hasNext()) {// 遍历每个模板
-					Entry<String, Integer[]> entry = it.next();
-					feature = entry.getKey() + ":";
-					Integer[] numbers = entry.getValue();
-
-					for (int k = 0; k < numbers.length; k = k + 2) {
-						if (numbers[k] + m < 0
-								|| numbers[k] + m >= sentence.length)
-							continue;
-						feature += sentence[numbers[k] + m][numbers[k + 1]];
-					}
-
-					if (feature.startsWith("U")
-							&& crfParams.uFeatureAddr.containsKey(feature)) {
-						uFeatureArray[uIndex] = crfParams.uFeatureAddr.get(feature);
-						if (uStartIndex == -1)
-							uStartIndex = uIndex;
-						uIndex++;
-					} else if (crfParams.bFeatureAddr.containsKey(feature) && m > 0) {
-						bFeatureArray[bIndex] = crfParams.bFeatureAddr.get(feature);
-						if (bStartIndex == -1)
-							bStartIndex = bIndex;
-						bIndex++;
-					}
-				}
-
-				uStart[m] = uStartIndex;
-				uEnd[m] = (uStartIndex == -1) ? -1 : uIndex - 1;
-				bStart[m] = bStartIndex;
-				bEnd[m] = (bStartIndex == -1) ? -1 : bIndex - 1;
-			}
-			uFeatureStart.add(uStart);
-			uFeatureEnd.add(uEnd);
-			bFeatureStart.add(bStart);
-			bFeatureEnd.add(bEnd);
-		}
+	public void compileTemplates() {
+		featureTemplates = FeatureTemplate.compile(crfParams.templates);
 	}
 	
 	/**
-	 * 根据当前所有的句子和标签信息初始化uFeatureArray和bFeatureArray数组 <br/>
-	 * CRFTrainer： 利用所有训练句子和训练句子的标签来初始化uFeatureArray和bFeatureArray数组 <br/>
-	 * CRFTagger： 对于每个要标记的句子及其“标签”（可以为占位符），初始化uFeatureArray和bFeatureArray数组， <br/>
-	 * @param allSentences 当前的句子列表
-	 * @param allSentencesLabels 当前句子标签列表
+	 * 根据tokens中所有的句子，一次遍历生成corpus：依次填入每个单词的特征以及句子和单词的偏移，标签均记为0 <br/>
+	 * CRFTrainer： 特征由initFeatureInfo在统计特征时直接生成 <br/>
+	 * CRFTagger： 对于每个要标记的句子，初始化corpus <br/>
+	 * 如果某个位置没有状态或者转移特征，则其对应的区间为空
 	 */
-	public void initFeatureArray(ArrayList<String[][]> allSentences,ArrayList<Integer[]> allSentencesLabels) {
-		String feature;
-		uFeatureCount = 0;
-		bFeatureCount = 0;
-
-		for (int i = 0; i < allSentences.size(); i++) {// 遍历每个句子
-			String[][] sentence = allSentences.get(i);// 句子
-			Integer[] curLabels = allSentencesLabels.get(i);// 当前句子的标签
-			for (int m = 0; m < sentence.length; m++) {// 遍历每个单词
-				Iterator<Entry<String, Integer[]>> it = crfParams.templates.entrySet()
-						.iterator();
-				while (it.hasNext()) {// 遍历每个模板
-					Entry<String, Integer[]> entry = it.next();
-					feature = entry.getKey() + ":";
-					Integer[] numbers = entry.getValue();
-
-					for (int k = 0; k < numbers.length; k = k + 2) {
-						if (numbers[k] + m < 0
-								|| numbers[k] + m >= sentence.length)
-							continue;
-						feature += sentence[numbers[k] + m][numbers[k + 1]];
-					}
-
-					if (feature.startsWith("U")
-							&& crfParams.uFeatureAddr.containsKey(feature)) {// 状态特征
-						//int labelIndex = curLabels[m];
-						uFeatureCount++;
-
-					} else if (crfParams.bFeatureAddr.containsKey(feature) && m > 0) {
-						bFeatureCount++;
-					}
+	public void initCorpus() {
+		KeyBuilder key = new KeyBuilder();
+		IntList uFeatures = new IntList();
+		IntList bFeatures = new IntList();
+		IntList uStart = new IntList();
+		IntList bStart = new IntList();
+		IntList labels = new IntList();
+		int[] sentenceStart = new int[tokens.sentenceNum() + 1];
+		int addr;
+
+		for (int i = 0; i < tokens.sentenceNum(); i++) {// 遍历每个句子
+			int first = tokens.first(i);
+			int length = tokens.length(i);
+			sentenceStart[i] = labels.size;
+
+			for (int m = 0; m < length; m++) {// 遍历每个单词
+				uStart.add(uFeatures.size);
+				bStart.add(bFeatures.size);
+				labels.add(0);
+
+				for (FeatureTemplate template : featureTemplates) {// 遍历每个模板
+					if (!template.unigram && m == 0)
+						continue;
+					template.feature(tokens, first, length, m, key);
+					if ((addr = crfParams.featureAddr(key, template.unigram)) == CRFParams.NO_FEATURE)
+						continue;
+					if (template.unigram)
+						uFeatures.add(addr);
+					else
+						bFeatures.add(addr);
 				}
 			}
 		}
-		uFeatureArray = new int[uFeatureCount];
-		bFeatureArray = new int[bFeatureCount];
+		sentenceStart[tokens.sentenceNum()] = labels.size;
+		uStart.add(uFeatures.size);
+		bStart.add(bFeatures.size);
+		this.setCorpus(sentenceStart, uStart, bStart, uFeatures, bFeatures, labels);
 	}
 	
 	/**
-	 * 将一个句子的标签用其序号代替，并返回标签序号数组
-	 * @param sentence
-	 * @return 句子对应的标签数组
+	 * 用抽取得到的各个缓冲区生成corpus
 	 */
-	public Integer[] mapSentenceLabelToNum(String[][] sentence){
-		Integer[] sLabels = new Integer[sentence.length];
-		for(int i = 0; i < sLabels.length; i++){
-			if (crfParams.labels.contains(sentence[i][crfParams.col - 1])) {
-				sLabels[i] = crfParams.labels.indexOf(sentence[i][crfParams.col - 1]);
-				
-			} else {
-				crfParams.labels.add(sentence[i][crfParams.col - 1]);
-				sLabels[i] = crfParams.labels.indexOf(sentence[i][crfParams.col - 1]);
-			}
-		}
-		return sLabels;
+	protected void setCorpus(int[] sentenceStart, IntList uStart, IntList bStart,
+			IntList uFeatures, IntList bFeatures, IntList labels) {
+		corpus = new FeatureCorpus();
+		corpus.sentenceNum = sentenceStart.length - 1;
+		corpus.tokenNum = labels.size;
+		corpus.sentenceStart = sentenceStart;
+		corpus.uFeatureStart = uStart.toArray();
+		corpus.bFeatureStart = bStart.toArray();
+		corpus.uFeatureArray = uFeatures.toArray();
+		corpus.bFeatureArray = bFeatures.toArray();
+		corpus.labels = labels.toArray();
 	}
 	
 	/**
-	 * 从文件中读取一个句子（每个句子以空行表示结束）
-	 * @param in 文件流
-	 * @return 句子的二维数组
-	 * @throws IOException
+	 * 从文件中读取一个句子（每个句子以空行表示结束），加入tokens <br/>
+	 * 第一次读取时由文件的第一行初始化crfParams.col和tokens，每一列的字节直接加入tokens中该列的符号表
+	 * @param in 语料读取器
+	 * @return 句子的长度，为0时表示文件结束
+	 * @throws IOException 文件格式不正确
 	 */
-	public String[][] readSingleSentence(BufferedReader in) throws IOException{
-		String line = "";
-		ArrayList<String[]> temWords = new ArrayList<String[]>();
-		while(true){
-			line = in.readLine();
-			if(line == null || line.length() == 0){
-				break;
-			}
-			String[] token = line.split("\\s");
+	public int readSentence(CorpusReader in) throws IOException{
+		if(tokens == null){
 			//初始化列数
 			if(crfParams.col == 0)
-				crfParams.col = token.length;
-			//判断
-			if(token.length != crfParams.col){
-				System.err.println("文件格式不正确：列数不一致");
-				System.err.println(line);
-				return null;
-			}
-			temWords.add(token);
-		}
-		String[][] tokens = new String[temWords.size()][crfParams.col];
-		for(int i = 0; i < temWords.size(); i++){
-			for(int j = 0; j < crfParams.col; j++){
-				tokens[i][j] = temWords.get(i)[j];
-			}
+				crfParams.col = in.peekColumns();
+			if(crfParams.col == 0)
+				return 0;
+			tokens = new TokenCorpus(crfParams.col);
 		}
-		return tokens;
+		return in.readSentence(tokens);
 	}
-	
-	
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,116 @@
+package dut.ir.CRFJava;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FileName： CRFDecoder.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：解码器，使用CRFModel标记句子 <br/>
+ *     crfParams、featureTemplates和转移分数缓存直接引用CRFModel中的对象，不能修改，也不能调用initTransitionCache； <br/>
+ *     tokens、corpus和工作区属于解码器自己，在句子之间重复使用，所以一个解码器同一时刻只能被一个线程使用
+ */
+
+public class CRFDecoder extends AbstractCRF {
+	/**
+	 * 解码器所属的模型
+	 */
+	public final CRFModel model;
+
+	/**
+	 * viterbi使用的工作区
+	 */
+	protected final Lattice lattice;
+
+	/**
+	 * 使用模型创建解码器，不复制模型
+	 * @param model 模型
+	 */
+	public CRFDecoder(CRFModel model) {
+		this.model = model;
+		this.crfParams = model.params;
+		this.featureTemplates = model.featureTemplates;
+		this.staticBFeatures = model.staticBFeatures;
+		this.transScore = model.transScore;
+		this.transExp = model.transExp;
+		this.transMax = model.transMax;
+		this.tokens = new TokenCorpus(crfParams.col);
+		this.lattice = new Lattice(crfParams.K);
+	}
+
+	/**
+	 * 编译模型参数并计算转移分数缓存，只在创建CRFModel时使用 <br/>
+	 * 得到的解码器不属于任何模型，不能用于标记
+	 */
+	CRFDecoder(CRFParams params) {
+		this.model = null;
+		this.crfParams = params;
+		this.compileTemplates();
+		this.initTransitionCache();
+		this.tokens = new TokenCorpus(crfParams.col);
+		this.lattice = new Lattice(crfParams.K);
+	}
+
+	/**
+	 * 标记一个句子
+	 * @param sentence 每个单词为一行，包含crfParams.col列，或不包含最后的标签列
+	 * @return 每个单词的标签
+	 */
+	public String[] tag(String[][] sentence) {
+		tokens.clear();
+		if (!this.addSentence(sentence))
+			return new String[0];
+		this.initCorpus();
+		return this.labels(0);
+	}
+
+	/**
+	 * 标记多个句子，所有句子一起抽取特征
+	 * @param sentences 句子列表，句子的格式见tag(String[][])
+	 * @return 每个句子的标签，顺序与sentences相同
+	 */
+	public List<String[]> tag(List<String[][]> sentences) {
+		tokens.clear();
+		boolean[] empty = new boolean[sentences.size()];
+		for (int i = 0; i < empty.length; i++)
+			empty[i] = !this.addSentence(sentences.get(i));
+		this.initCorpus();
+
+		List<String[]> result = new ArrayList<String[]>(empty.length);
+		for (int i = 0, sid = 0; i < empty.length; i++)
+			result.add(empty[i] ? new String[0] : this.labels(sid++));
+		return result;
+	}
+
+	/**
+	 * 把句子加入tokens，缺少标签列时标签列记为空字符串
+	 * @return 句子是否非空
+	 */
+	private boolean addSentence(String[][] sentence) {
+		int col = crfParams.col;
+		KeyBuilder key = tokens.key;
+		for (String[] row : sentence) {
+			if (row.length != col && row.length != col - 1)
+				throw new IllegalArgumentException("列数不正确：" + row.length + "，应为" + col + "或" + (col - 1));
+			for (int c = 0; c < col; c++) {
+				key.clear();
+				if (c < row.length)
+					key.append(row[c]);
+				tokens.addSymbol(c, key);
+			}
+		}
+		return tokens.endSentence() > 0;
+	}
+
+	/**
+	 * 用viterbi标记corpus中的第sid个句子
+	 * @return 每个单词的标签
+	 */
+	private String[] labels(int sid) {
+		int[] path = this.viterbi(sid, lattice);
+		String[] result = new String[lattice.length];
+		for (int i = 0; i < result.length; i++)
+			result[i] = crfParams.labels.get(path[i]);
+		return result;
+	}
+}
@@ -0,0 +1,121 @@
+package dut.ir.CRFJava;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * FileName： CRFModel.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：加载并编译后的模型，包括模型参数、编译后的特征模板和转移分数缓存，创建后不再修改，可以被任意多个线程共享 <br/>
+ *     每个线程使用自己的CRFDecoder标记句子，解码器之间共享模型，只有工作区是各自的； <br/>
+ *     tag方法从解码器池中借用一个解码器，用完后归还，适合大量短生命周期的线程（如虚拟线程），不需要每个线程保存一个解码器
+ */
+
+public class CRFModel {
+	/**
+	 * 模型参数，只读
+	 */
+	public final CRFParams params;
+
+	/**
+	 * 编译后的特征模板
+	 */
+	public final FeatureTemplate[] featureTemplates;
+
+	/**
+	 * 与位置无关的转移特征，见AbstractCRF.staticBFeatures
+	 */
+	public final int[] staticBFeatures;
+
+	/**
+	 * 转移分数缓存，见AbstractCRF.transScore，只读
+	 */
+	public final double[] transScore;
+
+	/**
+	 * 见AbstractCRF.transExp，只读
+	 */
+	public final double[] transExp;
+
+	/**
+	 * 见AbstractCRF.transMax
+	 */
+	public final double transMax;
+
+	/**
+	 * 空闲的解码器
+	 */
+	private final ConcurrentLinkedQueue<CRFDecoder> decoders = new ConcurrentLinkedQueue<CRFDecoder>();
+
+	/**
+	 * 编译模型参数，params此后不能再被修改
+	 * @param params 模型参数
+	 */
+	public CRFModel(CRFParams params) {
+		CRFDecoder decoder = new CRFDecoder(params);
+		this.params = params;
+		this.featureTemplates = decoder.featureTemplates;
+		this.staticBFeatures = decoder.staticBFeatures;
+		this.transScore = decoder.transScore;
+		this.transExp = decoder.transExp;
+		this.transMax = decoder.transMax;
+	}
+
+	/**
+	 * 加载模型文件，见ModelFile.load
+	 * @param modelFile 模型文件
+	 * @return 模型
+	 */
+	public static CRFModel load(String modelFile) throws IOException, ClassNotFoundException {
+		return new CRFModel(ModelFile.load(modelFile));
+	}
+
+	/**
+	 * 创建一个新的解码器，只能在一个线程中使用
+	 */
+	public CRFDecoder newDecoder() {
+		return new CRFDecoder(this);
+	}
+
+	/**
+	 * 从解码器池中取出一个解码器，没有空闲的解码器时新建一个，用完后调用release归还
+	 */
+	public CRFDecoder acquire() {
+		CRFDecoder decoder = decoders.poll();
+		return decoder != null ? decoder : new CRFDecoder(this);
+	}
+
+	/**
+	 * 归还acquire得到的解码器，归还后不能再使用
+	 */
+	public void release(CRFDecoder decoder) {
+		decoders.offer(decoder);
+	}
+
+	/**
+	 * 标记一个句子，线程安全
+	 * @see CRFDecoder#tag(String[][])
+	 */
+	public String[] tag(String[][] sentence) {
+		CRFDecoder decoder = acquire();
+		try {
+			return decoder.tag(sentence);
+		} finally {
+			release(decoder);
+		}
+	}
+
+	/**
+	 * 标记多个句子，线程安全
+	 * @see CRFDecoder#tag(List)
+	 */
+	public List<String[]> tag(List<String[][]> sentences) {
+		CRFDecoder decoder = acquire();
+		try {
+			return decoder.tag(sentences);
+		} finally {
+			release(decoder);
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package dut.ir.CRFJava;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectInputStream.GetField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -16,6 +19,11 @@ import java.util.HashMap;
  */
 
 public class CRFParams implements Serializable{
+	/**
+	 * 与旧版本模型文件保持一致，使其仍然可以被读取
+	 */
+	private static final long serialVersionUID = 4073244915520686865L;
+	
 	/**
 	 * 标签列表，将标签转换为其在labels中的索引，训练过程中所有的标签都用其索引来代替
 	 */
@@ -48,19 +56,93 @@ public class CRFParams implements Serializable{
 	/**
 	 * 每个状态特征在funWeight中的首地址映射，如：第i个特征为：'U10:%x[-2,1]'，则其对应K * i
 	 */
-	public HashMap<String, Integer> uFeatureAddr; 
+	public FeatureDict uFeatureAddr; 
 
 	/**
 	 * 转移特征在funWeight中的首地址映射
 	 */
-	public HashMap<String, Integer> bFeatureAddr;
+	public FeatureDict bFeatureAddr;
 	
 	/**
 	 * 句子的列数，包含标签列
 	 */
 	public int col = 0;
 	
+	/**
+	 * 特征哈希模式下状态特征的桶数，为0时使用uFeatureAddr和bFeatureAddr <br/>
+	 * 大于0时，第i个桶的状态特征函数的权重为funWeight[K*i, ..., K*i + K - 1]，
+	 * 第j个桶的转移特征函数的权重为funWeight[K*uHashBuckets + j*K*K, ...]
+	 */
+	public int uHashBuckets = 0;
+	
+	/**
+	 * 特征哈希模式下转移特征的桶数
+	 */
+	public int bHashBuckets = 0;
+	
+	/**
+	 * 特征不存在时featureAddr的返回值
+	 */
+	public static final int NO_FEATURE = Integer.MIN_VALUE;
+	
 	public CRFParams(){
 		
 	}
+	
+	/**
+	 * 是否为特征哈希模式
+	 */
+	public boolean isHashing() {
+		return uHashBuckets > 0;
+	}
+	
+	/**
+	 * 查找特征在funWeight中的首地址 <br/>
+	 * 特征哈希模式下，特征的哈希值决定其所在的桶以及符号，符号为负时返回~addr，即该特征的取值为-1，以减小冲突带来的偏差
+	 * @param key 特征字符串的UTF-8编码
+	 * @param unigram 是否为状态特征
+	 * @return 特征的首地址，符号为负时为~addr，特征不存在时为NO_FEATURE
+	 */
+	public int featureAddr(KeyBuilder key, boolean unigram) {
+		if (uHashBuckets > 0)
+			return hashAddr(FeatureDict.hash(key.bytes, 0, key.length), unigram);
+		int addr = (unigram ? uFeatureAddr : bFeatureAddr).get(key);
+		return addr < 0 ? NO_FEATURE : addr;
+	}
+	
+	/**
+	 * 特征哈希模式下，由特征字符串的哈希值得到其首地址，见featureAddr
+	 * @param h 特征字符串的哈希值，即FeatureDict.hash
+	 * @param unigram 是否为状态特征
+	 * @return 特征的首地址，符号为负时为~addr
+	 */
+	public int hashAddr(int h, boolean unigram) {
+		int addr = unigram ? ((h & 0x7FFFFFFF) % uHashBuckets) * K
+				: uHashBuckets * K + ((h & 0x7FFFFFFF) % bHashBuckets) * K * K;
+		return h < 0 ? ~addr : addr;
+	}
+	
+	/**
+	 * 读取模型，旧版本模型中的uFeatureAddr和bFeatureAddr为HashMap，读取时转换为FeatureDict
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		GetField fields = in.readFields();
+		labels = (ArrayList<String>) fields.get("labels", null);
+		K = fields.get("K", -1);
+		templates = (HashMap<String, Integer[]>) fields.get("templates", null);
+		funWeight = (double[]) fields.get("funWeight", null);
+		uFeatureAddr = toDict(fields.get("uFeatureAddr", null));
+		bFeatureAddr = toDict(fields.get("bFeatureAddr", null));
+		col = fields.get("col", 0);
+		uHashBuckets = fields.get("uHashBuckets", 0);
+		bHashBuckets = fields.get("bHashBuckets", 0);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static FeatureDict toDict(Object addr) {
+		if (addr instanceof HashMap)
+			return FeatureDict.fromMap((HashMap<String, Integer>) addr);
+		return (FeatureDict) addr;
+	}
 }
@@ -1,13 +1,12 @@
 package dut.ir.CRFJava;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.ObjectInputStream;
-import java.util.ArrayList;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * FileName： CRFTagger.java <br/>
@@ -16,87 +15,255 @@ import java.util.ArrayList;
  * date：2014-7-11 <br/>
  * time：下午9:09:06 <br/>
  * email: zmz@mail.dlut.edu.cn <br/>
- * 功能：TODO <br/>
+ * 功能：标记文件中的所有句子，在CRFDecoder的基础上增加文件的读写 <br/>
  */
 
-public class CRFTagger extends AbstractCRF{
+public class CRFTagger extends CRFDecoder{
 
+	/**
+	 * 每个标签的UTF-8编码
+	 */
+	private final byte[][] labelBytes;
+	
+	/**
+	 * 每批读取的单词数，至少读取一个句子
+	 */
+	private static final int BATCH_TOKENS = 4096;
+	
 	/**
 	 * 加载模型文件
 	 * @param modelFile 模型文件
 	 * @throws Exception
 	 */
 	public CRFTagger(String modelFile) throws Exception{
-		initCRFParams(modelFile);
+		this(CRFModel.load(modelFile));
+	}
+	
+	/**
+	 * 使用已加载的模型，不重复加载模型文件
+	 * @param model 模型
+	 */
+	public CRFTagger(CRFModel model){
+		super(model);
+		labelBytes = new byte[crfParams.K][];
+		for(int k = 0; k < crfParams.K; k++)
+			labelBytes[k] = crfParams.labels.get(k).getBytes(StandardCharsets.UTF_8);
 	}
 	
 	
 	public static void main(String[] args) throws Exception{
 		CRFTagger tagger = new CRFTagger("data/model");
-		tagger.tagger("data/test.data", "data/out.txt");
+		tagger.tagger("data/test.data", "data/out.txt", Runtime.getRuntime().availableProcessors());
 	}
 
 	/**
-	 * 对一个文件进行标记，依次读取所有句子，对于每个句子进行标记，并将结果写入文件
+	 * 对一个文件进行标记，每次读取一批句子，标记后将结果写入文件，只使用当前线程 <br/>
+	 * 输入和输出文件均为UTF-8编码，输出的每一列直接取自符号表中的字节
 	 * @param testFile 待标记的文件
 	 * @param outFile 标记结果输出文件
 	 * @throws Exception
 	 */
 	public void tagger(String testFile,String outFile) throws Exception{
-		BufferedReader in = new BufferedReader(new FileReader(testFile));
-		BufferedWriter out = new BufferedWriter(new FileWriter(outFile));
+		CorpusReader in = new CorpusReader(testFile);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16);
+		KeyBuilder lines = new KeyBuilder();
+		try {
+			while(readBatch(in, tokens)){
+				this.tagBatch(tokens, lines);
+				out.write(lines.bytes, 0, lines.length);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+	
+	/**
+	 * 使用流水线并行标记一个文件，输出与tagger(testFile, outFile)完全相同 <br/>
+	 * 读取线程每次读取一批句子，threadNum个标记线程各自使用一个CRFTagger标记，当前线程按读取的顺序写入结果； <br/>
+	 * 所有批次来自一个固定大小的池，各阶段之间的队列都是有界的，内存占用与文件大小无关
+	 * @param testFile 待标记的文件
+	 * @param outFile 标记结果输出文件
+	 * @param threadNum 标记线程数
+	 * @throws Exception
+	 */
+	public void tagger(String testFile, String outFile, final int threadNum) throws Exception{
+		if(threadNum <= 1){
+			this.tagger(testFile, outFile);
+			return;
+		}
+		final CorpusReader in = new CorpusReader(testFile);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16);
 		
-		while(true){
-			String[][] sentence = this.readSingleSentence(in);
-			Integer[] sLabels = new Integer[sentence.length];
-			
-			if(sentence.length == 0){
-				in.close();
-				out.close();
-				return;
+		int poolSize = 2 * threadNum + 2;
+		final BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(poolSize);
+		final BlockingQueue<Batch> todo = new ArrayBlockingQueue<Batch>(poolSize + threadNum);
+		final BlockingQueue<Batch> done = new ArrayBlockingQueue<Batch>(poolSize + threadNum);
+		for(int i = 0; i < poolSize; i++)
+			free.add(new Batch(crfParams.col));
+		final Batch end = new Batch(0);
+		final Throwable[] error = new Throwable[1];
+		
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					for(int seq = 0; error[0] == null; seq++){
+						Batch batch = free.take();
+						if(!readBatch(in, batch.tokens)){
+							free.add(batch);
+							break;
+						}
+						batch.seq = seq;
+						todo.put(batch);
+					}
+				} catch (Throwable e) {
+					fail(error, e);
+				} finally {
+					for(int i = 0; i < threadNum; i++)
+						todo.add(end);
+				}
 			}
-			
-			this.initContext(sentence, sLabels);
-			int[] pLabels = this.viterbi(0);
-			
-			for(int i = 0; i < sLabels.length; i++){
-				for(int j = 0; j < crfParams.col; j++){
-					out.write(sentence[i][j] + "\t");
+		}, "CRFTagger-reader");
+		
+		Thread[] workers = new Thread[threadNum];
+		for(int w = 0; w < threadNum; w++){
+			final CRFTagger tagger = w == 0 ? this : new CRFTagger(model);
+			workers[w] = new Thread(new Runnable() {
+				public void run() {
+					while(true){
+						Batch batch = take(todo);
+						try {
+							if(batch != end && error[0] == null)
+								tagger.tagBatch(batch.tokens, batch.out);
+						} catch (Throwable e) {
+							fail(error, e);
+						}
+						done.add(batch);
+						if(batch == end)
+							return;
+					}
+				}
+			}, "CRFTagger-worker-" + w);
+		}
+		
+		TokenCorpus ownTokens = tokens;
+		reader.start();
+		for(Thread worker : workers)
+			worker.start();
+		try {
+			// 按读取的顺序写入，提前完成的批次暂存在pending中，同时在途的批次不超过poolSize
+			Batch[] pending = new Batch[poolSize];
+			int next = 0;
+			int ended = 0;
+			while(ended < threadNum){
+				Batch batch = take(done);
+				if(batch == end){
+					ended++;
+					continue;
+				}
+				pending[batch.seq % poolSize] = batch;
+				while((batch = pending[next % poolSize]) != null && batch.seq == next){
+					pending[next % poolSize] = null;
+					next++;
+					if(error[0] == null){
+						try {
+							out.write(batch.out.bytes, 0, batch.out.length);
+						} catch (IOException e) {
+							fail(error, e);
+						}
+					}
+					free.add(batch);
 				}
-				out.write(crfParams.labels.get(pLabels[i]));
-				out.newLine();
 			}
-			out.newLine();
+			reader.join();
+			for(Thread worker : workers)
+				worker.join();
+		} finally {
+			tokens = ownTokens;
+			in.close();
+			out.close();
 		}
+		if(error[0] instanceof Exception)
+			throw (Exception) error[0];
+		if(error[0] != null)
+			throw new RuntimeException(error[0]);
 	}
 	
-	
 	/**
-	 * 根据传递的单个句子和相应的标签数组，实例化父类的成员变量，便于计算所有的M矩阵，以及进行viterbi运算
-	 * @param sentence
-	 * @param sLabels
-	 * @throws Exception
+	 * 流水线中的一批句子，以及其标记结果
 	 */
-	private void initContext(String[][] sentence, Integer[] sLabels) throws Exception{
-		this.sentences = new ArrayList<String[][]>();
-		this.sentenceLabels = new ArrayList<Integer[]>();
-		this.sentenceLabels.add(sLabels);
-		this.sentences.add(sentence);
+	private static class Batch {
+		/**
+		 * 批次的序号，写入时按序号排序
+		 */
+		int seq;
 		
-		this.initFeatureArray(this.sentences, this.sentenceLabels);
-		this.initWordFeatureInfo(this.sentences, this.sentenceLabels);
+		final TokenCorpus tokens;
+		
+		/**
+		 * 标记结果，即要写入文件的字节
+		 */
+		final KeyBuilder out = new KeyBuilder();
+		
+		Batch(int col) {
+			tokens = col > 0 ? new TokenCorpus(col) : null;
+		}
+	}
+	
+	private static void fail(Throwable[] error, Throwable e) {
+		synchronized (error) {
+			if (error[0] == null)
+				error[0] = e;
+		}
+	}
+	
+	private static Batch take(BlockingQueue<Batch> queue) {
+		while (true) {
+			try {
+				return queue.take();
+			} catch (InterruptedException e) {
+				// 各阶段都会结束，不响应中断
+			}
+		}
 	}
 	
 	/**
-	 * 从模型文件中读取CRFParmas变量，式礼服父类中的crfParams
-	 * @param modelFile
-	 * @throws Exception
+	 * 清空tokens，读取一批句子，单词数达到BATCH_TOKENS或文件结束时停止
+	 * @return 是否读到了句子
 	 */
-	private void initCRFParams(String modelFile) throws Exception{
-		FileInputStream fis=new FileInputStream(modelFile);
-		ObjectInputStream ois=new ObjectInputStream(fis);
-		
-		this.crfParams = (CRFParams) ois.readObject();
-		ois.close();
+	private static boolean readBatch(CorpusReader in, TokenCorpus tokens) throws IOException{
+		tokens.clear();
+		while(tokens.tokenNum() < BATCH_TOKENS && in.readSentence(tokens) > 0){
+		}
+		return tokens.sentenceNum() > 0;
 	}
+	
+	/**
+	 * 标记batch中的所有句子，把结果写入out：每个单词一行，各列之间以\t分隔，最后一列为标签，每个句子后为一个空行
+	 * @param batch 要标记的句子，标记期间作为当前的tokens
+	 * @param out 输出缓冲区，写入前清空
+	 */
+	private void tagBatch(TokenCorpus batch, KeyBuilder out){
+		tokens = batch;
+		this.initCorpus();
+		out.clear();
+		for(int sid = 0; sid < tokens.sentenceNum(); sid++){
+			int first = tokens.first(sid);
+			int length = tokens.length(sid);
+			int[] pLabels = this.viterbi(sid, lattice);
+			for(int i = 0; i < length; i++){
+				for(int j = 0; j < crfParams.col; j++){
+					tokens.appendSymbol(first + i, j, out);
+					out.append(TAB, 0, 1);
+				}
+				byte[] label = labelBytes[pLabels[i]];
+				out.append(label, 0, label.length);
+				out.append(NEW_LINE, 0, 1);
+			}
+			out.append(NEW_LINE, 0, 1);
+		}
+	}
+	
+	private static final byte[] TAB = {'\t'};
+	private static final byte[] NEW_LINE = {'\n'};
 }
@@ -1,15 +1,27 @@
 package dut.ir.CRFJava;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,43 +56,261 @@ public class CRFTrainer extends AbstractCRF {
 	 */
 	private int bFeatureNum;
 	
+	/**
+	 * 计算损失函数和梯度时使用的线程数，为1时在当前线程中串行计算
+	 */
+	private int threadNum = 1;
+	
+	/**
+	 * 并行计算损失函数时使用的fork-join线程池，threadNum为1时为null
+	 */
+	private ForkJoinPool pool;
+	
+	/**
+	 * 句子分片：第i个分片包含的句子为[shardStart[i], shardStart[i+1])，按单词数均匀划分，划分结果只与threadNum有关；外存训练时每块语料分别划分
+	 */
+	private int[] shardStart;
+	
+	/**
+	 * 每个分片的梯度缓冲区，在每次调用LBFGS.lbfgs之前按分片顺序归约到梯度向量中 <br/>
+	 * 第0个分片直接写入梯度向量，不使用缓冲区；缓冲区只有shardBlocks中的部分可能非0，归约时只累加并清零这些部分 <br/>
+	 * 注意：缓冲区是与funWeight等长的稠密数组，sentenceLoss按特征的首地址直接写入，因此内存随threadNum * 特征函数数增长；
+	 * 只为用到的特征分配紧凑的缓冲区需要为每个分片另存一份地址重新编号的特征数组，语料的内存会加倍，所以没有采用
+	 */
+	private double[][] shardGradients;
+	
+	/**
+	 * 每个分片的句子用到的所有特征的首地址，升序、不重复，状态特征占K维，转移特征占K * K维
+	 */
+	private int[][] shardBlocks;
+	
+	/**
+	 * 状态特征在funWeight中占用的区间为[0, uWeightEnd)，转移特征在其后
+	 */
+	private int uWeightEnd;
+	
+	/**
+	 * 每个分片的损失值
+	 */
+	private double[] shardLoss;
+	
+	/**
+	 * 每个分片计算准确率时正确的句子数、正确的单词数、解码的句子数和解码的单词数
+	 */
+	private int[][] shardCorrect;
+	
+	/**
+	 * 每个分片的工作区，在该分片的所有句子之间重复使用
+	 */
+	private Lattice[] shardLattices;
+	
+	/**
+	 * 训练选项
+	 */
+	private TrainOptions options;
+	
+	/**
+	 * 训练数据中所有的单词数
+	 */
+	private long tokenNum;
+	
+	/**
+	 * 最近一次调用loss时的负对数似然，不包含正则化项
+	 */
+	private double nll;
+	
+	/**
+	 * 外存训练时的语料文件，语料全部在内存中时为null；此时corpus为最近读入的一块
+	 */
+	private CorpusFile spill;
+	
+	/**
+	 * corpus中当前是语料文件的第几块，-1表示还没有读入
+	 */
+	private int loadedChunk = -1;
+	
+	/**
+	 * 外存训练时每一块语料的分片起始句子，在第一次读入该块时计算，之后的迭代直接使用
+	 */
+	private int[][] chunkShardStart;
+	
+	/**
+	 * 外存训练时每一块语料中每个分片用到的特征，与chunkShardStart一同计算 <br/>
+	 * 每个分片只保存去重后的特征首地址，且第0个分片不需要，所以远小于语料本身
+	 */
+	private int[][][] chunkShardBlocks;
+	
+	/**
+	 * 外存训练时语料文件的路径
+	 */
+	private String spillPath;
+	
+	/**
+	 * 热启动使用的原模型，只在构造时使用
+	 */
+	private CRFParams initParams;
+	
+	/**
+	 * 输出训练过程时每行的前缀，用于区分同时训练的多个模型
+	 */
+	private String logPrefix = "";
+	
 	public CRFTrainer(String trainFile, String templateFile, String modelFile,
 			int threshold, double delta) throws IOException {
-		this.delta2 = delta * delta;
+		this(trainFile, templateFile, modelFile, threshold, delta, 1);
+	}
+	
+	/**
+	 * @param trainFile 训练文件
+	 * @param templateFile 模板文件
+	 * @param modelFile 模型文件
+	 * @param threshold 特征频次阈值
+	 * @param delta 正则化参数
+	 * @param threadNum 计算损失函数和梯度时使用的线程数，相同的线程数得到的模型完全相同
+	 * @throws IOException
+	 */
+	public CRFTrainer(String trainFile, String templateFile, String modelFile,
+			int threshold, double delta, int threadNum) throws IOException {
+		this(trainFile, templateFile, modelFile, options(threshold, delta, threadNum));
+	}
+	
+	/**
+	 * @param trainFile 训练文件
+	 * @param templateFile 模板文件
+	 * @param modelFile 模型文件
+	 * @param options 训练选项
+	 * @throws IOException
+	 */
+	public CRFTrainer(String trainFile, String templateFile, String modelFile,
+			TrainOptions options) throws IOException {
+		if(options.threadNum < 1)
+			throw new IllegalArgumentException("threadNum必须大于0：" + options.threadNum);
+		if(options.uHashBuckets < 0 || (options.uHashBuckets > 0) != (options.bHashBuckets > 0))
+			throw new IllegalArgumentException("uHashBuckets和bHashBuckets必须同时大于0或同时为0");
+		if(options.l1 < 0)
+			throw new IllegalArgumentException("l1不能小于0：" + options.l1);
+		if(options.spillFile != null && options.algorithm != TrainOptions.LBFGS)
+			throw new IllegalArgumentException("外存训练只支持LBFGS算法");
+		if(options.patience < 0 || (options.patience > 0 && options.evalInterval <= 0))
+			throw new IllegalArgumentException("patience不能小于0，大于0时evalInterval必须大于0");
+		if(options.chunkTokens < 1)
+			throw new IllegalArgumentException("chunkTokens必须大于0：" + options.chunkTokens);
+		this.options = options;
+		this.delta2 = options.delta * options.delta;
+		this.threadNum = options.threadNum;
 		this.modelFile = modelFile;
 		crfParams = new CRFParams();
+		crfParams.uHashBuckets = options.uHashBuckets;
+		crfParams.bHashBuckets = options.bHashBuckets;
+		if(options.initModel != null){
+			try {
+				initParams = ModelFile.load(options.initModel);
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			if(initParams.uHashBuckets != crfParams.uHashBuckets || initParams.bHashBuckets != crfParams.bHashBuckets)
+				throw new IllegalArgumentException("热启动模型的哈希桶数与训练选项不同：" + options.initModel);
+			crfParams.col = initParams.col;// 训练文件的列数必须与原模型相同
+		}
 		// 初始化templates
 		initTemplates(templateFile);
+		compileTemplates();
 		System.out.println("模板：" + crfParams.templates.size());
 
-		// 初始化：sentences，sentenceLabels，labels
-		initSentencesAndLabels(trainFile);
-		crfParams.K = crfParams.labels.size();
-		System.out.println("句子：" + sentences.size());
-		System.out.println("标签数：" + crfParams.K);
+		// 预处理结果的缓存，命中时直接初始化：labels，crfParams.uFeatureAddr，crfParams.bFeatureAddr，crfParams.funWeight，corpus
+		String cache = null;
+		boolean cached = false;
+		if(options.cacheDir != null){
+			cache = cachePath(trainFile, templateFile);
+			cached = loadCache(cache);
+			System.out.println((cached ? "读取缓存：" : "缓存不存在：") + cache);
+		}
 
-		// 初始化：crfParams.uFeatureAddr，crfParams.bFeatureAddr，uFunWeight,bFunWeight,
-		initFeatureInfo(threshold);
-		System.out.println("状态特征：" + crfParams.uFeatureAddr.size());
-		System.out.println("转移特征：" + crfParams.bFeatureAddr.size());
-		System.out.println("特征函数：" + (crfParams.bFeatureAddr.size() * crfParams.K * crfParams.K + crfParams.uFeatureAddr.size()*crfParams.K));
+		if(options.spillFile != null){
+			String file = cache != null ? cache + ".corpus" : options.spillFile;
+			if(!cached){
+				// 初始化：labels，crfParams.uFeatureAddr，crfParams.bFeatureAddr，crfParams.funWeight，语料文件
+				initSpillFile(trainFile, options.threshold, cache != null ? file + ".part" : file);
+				if(cache != null)
+					saveCache(cache, null);
+			}
+			spill = new CorpusFile(file);
+			spillPath = file;
+			corpus = new FeatureCorpus();// 每次读入一块
+			System.out.println("句子：" + spill.sentenceNum);
+			System.out.println("标签数：" + crfParams.K);
+			System.out.println("语料块：" + spill.chunkNum());
+		}
+		else{
+			if(!cached){
+				// 初始化：tokens，labels
+				initSentencesAndLabels(trainFile);
+				crfParams.K = crfParams.labels.size();
 
-		//初始化：uFeatureArray,bFeatureArray
-		initFeatureArray(this.sentences, this.sentenceLabels);
-		// 初始化：uFeatureArray，bFeatureArray，uFeatureStart，uFeatureEnd，bFeatureStart，bFeatureEnd
-		initWordFeatureInfo(this.sentences, this.sentenceLabels);
+				// 初始化：crfParams.uFeatureAddr，crfParams.bFeatureAddr，crfParams.funWeight，corpus
+				initFeatureInfo(options.threshold);
+				if(cache != null)
+					saveCache(cache, corpus);
+			}
+			System.out.println("句子：" + corpus.sentenceNum);
+			System.out.println("标签数：" + crfParams.K);
+		}
+		tokens = null;// 之后只使用corpus
+		System.out.println("状态特征：" + uFeatureNum);
+		System.out.println("转移特征：" + bFeatureNum);
+		System.out.println("特征函数：" + crfParams.funWeight.length);
+		
+		if(initParams != null){
+			warmStart();
+			initParams = null;
+		}
+		
+		initShards();
+	}
+	
+	private static TrainOptions options(int threshold, double delta, int threadNum) {
+		TrainOptions options = new TrainOptions();
+		options.threshold = threshold;
+		options.delta = delta;
+		options.threadNum = threadNum;
+		return options;
 	}
 	
 	public static void main(String[] args) throws IOException {
-		CRFTrainer crf = new CRFTrainer("data/train.data", "data/template", "data/model",1, 1);
+		CRFTrainer crf = new CRFTrainer("data/train.data", "data/template", "data/model",1, 1, Runtime.getRuntime().availableProcessors());
 		crf.train();
 		//MyTool.showMap(crfParams.uFeatureAddr);
 	}
 	
 	/**
-	 * 使用LBFGS算法进行训练
+	 * 按options.algorithm选择的算法进行训练，并将模型写入文件；外存训练时训练结束后关闭语料文件
 	 */
 	public void train(){
+		try {
+			if(options.algorithm == TrainOptions.ADAGRAD)
+				this.trainAdaGrad();
+			else if(options.algorithm == TrainOptions.PERCEPTRON)
+				this.trainPerceptron();
+			else if(options.l1 > 0)
+				this.trainOWLQN();
+			else
+				this.trainLBFGS();
+		} finally {
+			if(spill != null){
+				try {
+					spill.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * 使用LBFGS算法进行训练 <br/>
+	 * 线搜索失败时不写入模型文件；早停模式下已经保存了最好的快照时，写入该快照
+	 */
+	public void trainLBFGS(){
 		double  diag1[];
 
 		double f, eps, xtol, gtol, t1, t2, stpmin, stpmax;
@@ -96,14 +326,14 @@ public class CRFTrainer extends AbstractCRF {
 		iflag[0] = 0;
 		m = 7;
 		diag1 = new double[crfParams.funWeight.length];
+		double[] gradient = new double[crfParams.funWeight.length];// 每次迭代重复使用
 		
 		double preLoss = 0;//前一次的损失值
 		double relLoss = 0;//与前一次损失值的相对差别
+		Evaluator evaluator = this.newEvaluator();
 		
 		do {
-			double[] gradient = new double[crfParams.funWeight.length];
 			double loss = loss(gradient);
-			double[] p = this.checkAllaccuracy();
 			if(iter == 0){
 				relLoss = 1;
 			}
@@ -111,8 +341,11 @@ public class CRFTrainer extends AbstractCRF {
 				relLoss = (preLoss - loss) / preLoss;
 			}
 			preLoss = loss;
-			System.out.printf("iter=%d  loss=%f  句子准确率：%f  单词准确率:%f  相对损失:%f\n",iter,loss,p[0],p[1],relLoss);
-			//System.out.println("iter=" + iter + "\tloss=" + loss + "\t句子准确率：" + p[0] + "\t单词准确率：" + p[1]);
+			System.out.printf("iter=%d  loss=%f  每词损失:%f  相对损失:%f\n",iter,loss,nll / tokenNum,relLoss);
+			if(evaluator != null && iter % options.evalInterval == 0)
+				evaluator.evaluate(iter);
+			if(evaluator != null && evaluator.shouldStop())
+				break;
 
 			try {
 				LBFGS.lbfgs(crfParams.funWeight.length, m, crfParams.funWeight, loss, gradient, diagco, diag1, iprint, eps, xtol,
@@ -120,301 +353,1829 @@ public class CRFTrainer extends AbstractCRF {
 				
 			} catch (LBFGS.ExceptionWithIflag e) {
 				System.err.println("Sdrive: lbfgs failed.\n" + e);
+				// finish等待后台评价结束后再判断是否有快照；早停模式下已有评价过的快照时，与正常结束相同，写入最好的快照
+				if(evaluator != null && evaluator.finish())
+					this.writeModel();
 				return;
 			}
 			
 			iter += 1;
 		} while (iflag[0] != 0 && iter <= 100 && relLoss > 0.00001);
 		
+		if(evaluator != null)
+			evaluator.finish();
 		this.writeModel();
 	}
 	
 	/**
-	 * 计算句子级别和单词级别的准确率
-	 * @return 句子级别的准确率和单词级别的准确率
+	 * 使用OWL-QN算法进行训练，目标函数为loss加上options.l1 * |w|_1，迭代的停止条件与LBFGS相同
 	 */
-	private double[] checkAllaccuracy(){
-		double[] p = new double[2];
-		int corS = 0;//正确的句子数
-		int corT  = 0;//正确的单词数
-		int tokens = 0;//所有的单词数
-		boolean right = true;
-		
-		for(int i = 0; i < sentences.size(); i++){
-			int[] tags = new int[sentences.get(i).length];
-			Integer[] sLabels = sentenceLabels.get(i);
-			int[] pLabels = this.viterbi(i);//预测值
-			right = true;//句子是否完全正确
+	public void trainOWLQN(){
+		Evaluator evaluator = this.newEvaluator();
+		this.minimizeOWLQN(evaluator);
+		if(evaluator != null)
+			evaluator.finish();
+		this.writeModel();
+	}
+	
+	/**
+	 * 用OWLQN最小化目标函数，不写入模型；l1为0时即为LBFGS，与trainLBFGS不同，可以在多个线程中同时进行
+	 * @param evaluator 每隔options.evalInterval次迭代评价一次，为null时不评价
+	 */
+	private void minimizeOWLQN(Evaluator evaluator){
+		OWLQN owlqn = new OWLQN(crfParams.funWeight, 7, options.l1, new OWLQN.Function() {
+			public double evaluate(double[] gradient) {
+				return loss(gradient);
+			}
+		});
+		double preLoss = 0;//前一次的损失值
+		double relLoss = 0;//与前一次损失值的相对差别
+		int iter = 0;
+		boolean moved;
+		do {
+			double loss = owlqn.value();
+			relLoss = iter == 0 ? 1 : (preLoss - loss) / preLoss;
+			preLoss = loss;
+			System.out.printf("%siter=%d  loss=%f  每词损失:%f  相对损失:%f  非0权值:%d\n",logPrefix,iter,loss,nll / tokenNum,relLoss,nonZero());
+			if(evaluator != null && iter % options.evalInterval == 0)
+				evaluator.evaluate(iter);
+			if(evaluator != null && evaluator.shouldStop())
+				break;
 			
-			for(int j = 0; j < pLabels.length; j++){
-				if(sLabels[j] == pLabels[j]){
-					corT++;
-				}
-				else{
-					right = false;
-				}
+			moved = owlqn.iterate();
+			iter += 1;
+		} while (moved && iter <= 100 && relLoss > 0.00001);
+		
+		this.initTransitionCache();
+	}
+	
+	/**
+	 * 对多个正则化参数delta同时进行训练，选择在开发集上单词准确率最高的模型写入模型文件 <br/>
+	 * 所有候选模型共享已经抽取的特征字典和corpus，只有权值、转移分数缓存和工作区是各自的；
+	 * 候选模型在threadNum个线程中同时训练，每个候选模型使用threadNum / deltas.length个线程计算损失函数 <br/>
+	 * 由于LBFGS.lbfgs使用静态变量保存状态，不能同时进行多个优化，候选模型使用OWLQN（options.l1为0时即为LBFGS）
+	 * @param deltas 候选的正则化参数
+	 * @param devFile 开发集，格式与训练文件相同
+	 * @return 最好的delta
+	 */
+	public double sweep(double[] deltas, String devFile) throws IOException {
+		if(spill != null)
+			throw new IllegalStateException("外存训练不支持sweep");
+		if(deltas.length == 0)
+			throw new IllegalArgumentException("deltas不能为空");
+		final FeatureCorpus dev = this.encode(devFile);
+		System.out.println("开发集句子：" + dev.sentenceNum);
+		
+		int candidateThreads = Math.max(1, threadNum / deltas.length);
+		final CRFTrainer[] candidates = new CRFTrainer[deltas.length];
+		for(int i = 0; i < deltas.length; i++){
+			candidates[i] = new CRFTrainer(this, corpus, deltas[i], candidateThreads);
+			candidates[i].logPrefix = "[delta=" + deltas[i] + "]  ";
+		}
+		
+		double[][] p = new double[deltas.length][];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadNum, deltas.length));
+		try {
+			List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+			for(final CRFTrainer candidate : candidates){
+				results.add(executor.submit(new Callable<double[]>() {
+					public double[] call() {
+						candidate.minimizeOWLQN(null);
+						candidate.corpus = dev;// 训练结束后只用于解码，checkAllaccuracy按dev划分分片，并检查dev的每个单词都被解码
+						return candidate.checkAllaccuracy();
+					}
+				}));
 			}
-			tokens += pLabels.length;
+			for(int i = 0; i < deltas.length; i++)
+				p[i] = results.get(i).get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
 		}
-		p[0] = 1.0 * corS / sentences.size();
-		p[1] = 1.0 * corT / tokens;
-		return p;
+		
+		int best = 0;
+		for(int i = 0; i < deltas.length; i++){
+			System.out.printf("delta=%f  开发集句子准确率：%f  单词准确率:%f\n", deltas[i], p[i][0], p[i][1]);
+			if(p[i][1] > p[best][1])
+				best = i;
+		}
+		System.out.printf("最好的delta=%f\n", deltas[best]);
+		
+		// 把最好的模型作为当前模型
+		this.delta2 = deltas[best] * deltas[best];
+		System.arraycopy(candidates[best].crfParams.funWeight, 0, crfParams.funWeight, 0, crfParams.funWeight.length);
+		this.initTransitionCache();
+		this.writeModel();
+		return deltas[best];
 	}
-
+	
 	/**
-	 * 根据当前参数，计算训练损失函数的值，并计算参数的梯度向量
-	 * @param gradient 梯度向量
-	 * @return 损失函数的值
+	 * 对训练数据进行k折交叉验证：句子按索引对folds取余分为folds份，每次用其中一份评价、其余的训练，输出每一折和总的准确率 <br/>
+	 * 所有的折共享已经抽取的特征字典，每一折复制自己的训练和评价句子，不重新读取文件和抽取特征；
+	 * 各折在最多threadNum个线程中同时训练，与sweep相同使用OWLQN，不写入模型文件 <br/>
+	 * 注意：特征字典和特征频次阈值使用全部训练数据，包括每一折的评价句子，因此结果偏乐观：
+	 * 在训练句子中出现次数低于阈值、但加上评价句子后达到阈值的特征被保留，而按折单独抽取特征时会被删除；
+	 * 只在评价句子中出现的特征权值始终为0，不影响解码。阈值为1时只有转移特征受影响，阈值越大偏差越大；
+	 * 需要无偏的结果时，应把每一折分别写成训练文件和开发集，用sweep或单独训练进行评价
+	 * @param folds 折数
+	 * @return 每一折的句子准确率和单词准确率，最后一个元素为所有折合起来的准确率
 	 */
-	public double loss(double[] gradient) {
-		int iter = 0;
-		Integer[] uStart;
-		Integer[] uEnd;
-		Integer[] bStart;
-		Integer[] bEnd;
-		int addr;
-
-		double loss = 0;
+	public double[][] crossValidate(final int folds) {
+		if(spill != null)
+			throw new IllegalStateException("外存训练不支持交叉验证");
+		if(folds < 2 || folds > corpus.sentenceNum)
+			throw new IllegalArgumentException("folds必须在2和句子数之间：" + folds);
+		final int candidateThreads = Math.max(1, threadNum / folds);
+		final double delta = Math.sqrt(delta2);
+		final int[] sentences = new int[folds];
+		final int[] tokens = new int[folds];
 		
-		for (int s = 0; s < sentences.size(); s++) {// 遍历所有句子
-			uStart = uFeatureStart.get(s);
-			uEnd = uFeatureEnd.get(s);
-			bStart = bFeatureStart.get(s);
-			bEnd = bFeatureStart.get(s);
-
-			ArrayList<double[][]> Ms = this.computeMs(s);
-			Integer[] sLabels = sentenceLabels.get(s);
-			double[][] alpha = this.alpha(Ms);
-			double[][] beta = this.beta(Ms);
-			double zeta1 = this.zetaByAlpha(alpha);
-			
-			if(Double.isInfinite(zeta1)//如果句子太长，归一化参数容易变为无穷大，所以句子应该尽可能的短 
-				continue;
-				
-			loss += Math.log(zeta1);
-
-			for (int i = 0; i < Ms.size(); i++) {// 遍历每个单词
-				double[][] M = Ms.get(i);
-
-				for(int j = uStart[i]; j >=0 && j <= uEnd[i]; j++){//更新状态特征函数的梯度
-					addr = uFeatureArray[j];//特征索引
-					loss = loss - crfParams.funWeight[addr + sLabels[i]];
-					gradient[addr + + sLabels[i]] -= 1;
-					
-					for(int k = 0; k < crfParams.K; k++){//addr处，第k个特征函数
-						gradient[addr + k] += alpha[k][i]*beta[k][i] / zeta1;
-						//gradient[addr + k] += crfParams.funWeight[addr + k] * alpha[k][i]*beta[k][i] / zeta1;
-					}
-				}
-				if(i > 0){
-					for(int j = bStart[i]; j >=0 && j <= bEnd[i]; j++){//更新转移特征函数的梯度
-						addr = bFeatureArray[j];//特征索引
-						loss -= crfParams.funWeight[addr + sLabels[i-1] * crfParams.K + sLabels[i]];
-						gradient[addr + sLabels[i-1] * crfParams.K + sLabels[i]] -= 1;
-						
-						for(int preK = 0; preK < crfParams.K; preK++){
-							for(int k = 0; k < crfParams.K;k++){
-								gradient[addr + preK * crfParams.K + k] +=  alpha[preK][i-1]*beta[k][i] * M[preK][k] / zeta1;
-								//gradient[addr + preK * crfParams.K + k] += crfParams.funWeight[addr + preK * crfParams.K + k] * alpha[preK][i-1]*beta[k][i] * M[preK][k] / zeta1;
-							}
-						}
+		double[][] p = new double[folds + 1][];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadNum, folds));
+		try {
+			List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+			for(int f = 0; f < folds; f++){
+				final int fold = f;
+				results.add(executor.submit(new Callable<double[]>() {
+					public double[] call() {
+						IntList train = new IntList();
+						IntList test = new IntList();
+						for(int s = 0; s < corpus.sentenceNum; s++)
+							(s % folds == fold ? test : train).add(s);
+						CRFTrainer candidate = new CRFTrainer(CRFTrainer.this, corpus.subset(train.toArray()), delta, candidateThreads);
+						candidate.logPrefix = "[fold=" + fold + "]  ";
+						candidate.minimizeOWLQN(null);
+						candidate.corpus = corpus.subset(test.toArray());// checkAllaccuracy按评价句子划分分片
+						sentences[fold] = candidate.corpus.sentenceNum;
+						tokens[fold] = candidate.corpus.tokenNum;
+						return candidate.checkAllaccuracy();
 					}
-				}
+				}));
 			}
-		}// 遍历句子完成
-
-		for(int k = 0; k < crfParams.funWeight.length; k++){
-			loss += 0.5 * crfParams.funWeight[k] * crfParams.funWeight[k] / delta2;
-			gradient[k] = gradient[k] + crfParams.funWeight[k] / delta2;
+			for(int f = 0; f < folds; f++)
+				p[f] = results.get(f).get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
 		}
-		return loss;
+		
+		double corS = 0, corT = 0;
+		long sentenceSum = 0, tokenSum = 0;
+		for(int f = 0; f < folds; f++){
+			System.out.printf("fold=%d  句子:%d  句子准确率：%f  单词准确率:%f\n", f, sentences[f], p[f][0], p[f][1]);
+			corS += p[f][0] * sentences[f];
+			corT += p[f][1] * tokens[f];
+			sentenceSum += sentences[f];
+			tokenSum += tokens[f];
+		}
+		p[folds] = new double[] { corS / sentenceSum, corT / tokenSum };
+		System.out.printf("%d折交叉验证  句子准确率：%f  单词准确率:%f\n", folds, p[folds][0], p[folds][1]);
+		return p;
 	}
 	
 	/**
-	 * 通过alpha矩阵计算zeta
-	 * @param alpha alpha矩阵
-	 * @return 归一化因子zeta
+	 * 创建共享base的特征字典的候选模型，权值从0开始训练
+	 * @param base 已经抽取特征的训练器
+	 * @param corpus 训练语料，只读，可以与base共享
+	 * @param delta 正则化参数
+	 * @param threadNum 计算损失函数时使用的线程数
 	 */
-	public double zetaByAlpha(double[][] alpha) {
-		double zeta = 0;
-		int length = alpha[0].length;
-
-		for (int i = 0; i < crfParams.K; i++) {
-			zeta += alpha[i][length - 1];
+	private CRFTrainer(CRFTrainer base, FeatureCorpus corpus, double delta, int threadNum) {
+		this.options = base.options;
+		this.delta2 = delta * delta;
+		this.threadNum = threadNum;
+		this.modelFile = base.modelFile;
+		this.featureTemplates = base.featureTemplates;
+		this.uFeatureNum = base.uFeatureNum;
+		this.bFeatureNum = base.bFeatureNum;
+		this.corpus = corpus;
+		if (threadNum > 1)
+			this.pool = base.pool;// 共享base的线程池，总线程数不超过base.threadNum
+		
+		crfParams = new CRFParams();
+		crfParams.labels = base.crfParams.labels;
+		crfParams.K = base.crfParams.K;
+		crfParams.templates = base.crfParams.templates;
+		crfParams.col = base.crfParams.col;
+		crfParams.uHashBuckets = base.crfParams.uHashBuckets;
+		crfParams.bHashBuckets = base.crfParams.bHashBuckets;
+		crfParams.uFeatureAddr = base.crfParams.uFeatureAddr;
+		crfParams.bFeatureAddr = base.crfParams.bFeatureAddr;
+		crfParams.funWeight = new double[base.crfParams.funWeight.length];
+		
+		initShards();
+	}
+	
+	/**
+	 * 用当前的特征字典编码一个带标签的文件，用于评价模型，不改变corpus <br/>
+	 * 不在特征字典中的特征被忽略，不在训练数据中的标签记为-1，解码结果总是错误
+	 * @param file 文件，格式与训练文件相同
+	 * @return 编码后的语料，labels为正确的标签
+	 */
+	private FeatureCorpus encode(String file) throws IOException {
+		FeatureCorpus train = corpus;
+		tokens = null;
+		CorpusReader in = new CorpusReader(file);
+		try {
+			while(this.readSentence(in) > 0){
+			}
+		} finally {
+			in.close();
 		}
-		return zeta;
+		if(tokens == null)
+			throw new IOException("文件为空：" + file);
+		this.initCorpus();
+		FeatureCorpus encoded = corpus;
+		corpus = train;
+		
+		int labelCol = crfParams.col - 1;
+		FeatureDict labelColumn = tokens.columns[labelCol];
+		int[] labelOf = new int[labelColumn.size()];
+		for(int e = 0; e < labelOf.length; e++)
+			labelOf[e] = crfParams.labels.indexOf(labelColumn.key(e));
+		for(int t = 0; t < encoded.tokenNum; t++)
+			encoded.labels[t] = labelOf[tokens.symbol(t, labelCol)];
+		tokens = null;
+		return encoded;
+	}
+	
+	private int nonZero(){
+		int count = 0;
+		for(double w : crfParams.funWeight)
+			if(w != 0)
+				count++;
+		return count;
 	}
 	
 	/**
-	 * 计算前向后向算法中的alpha矩阵
-	 * 
-	 * @param Ms 句子每个单词的M矩阵组成的列表
-	 * @return alpha矩阵
+	 * 使用AdaGrad随机梯度下降进行训练，每轮打乱句子的顺序，每次用batchSize个句子的梯度更新参数 <br/>
+	 * 目标函数与LBFGS相同，L2正则项平均分配到每个句子上；正则项采用延迟更新：只有本次用到的特征函数才更新，
+	 * 跳过的步数在下一次用到时或每轮结束时按最近一次的学习率一次补上 <br/>
+	 * 延迟更新是逐步更新的近似：逐步更新时每个跳过的步都把(lambda * w)^2计入梯度平方和，学习率逐步变小，
+	 * 延迟更新不计入，因此补上的衰减略大；热启动时从未出现梯度的非0权值，以逐步更新第一步的(lambda * w)^2作为梯度平方和开始衰减，
+	 * 新数据中不出现的特征也按正则项衰减，与每轮输出的目标函数中的正则项一致
 	 */
-	public double[][] alpha(ArrayList<double[][]> Ms) {
-		double[][] alpha = new double[crfParams.K][Ms.size()];
-
-		for (int i = 0; i < Ms.size(); i++) {// 依此求取每个位置的alpha
-			double[][] M = Ms.get(i);// i处的M矩阵
-			if (i == 0) {
-				for (int k = 0; k < crfParams.K; k++) {
-					alpha[k][i] = M[0][k];
-				}
-			} else {
-				for (int k = 0; k < crfParams.K; k++) {
-					for (int preK = 0; preK < crfParams.K; preK++) {
-						alpha[k][i] += alpha[preK][i - 1] * M[preK][k];
+	public void trainAdaGrad(){
+		int n = crfParams.funWeight.length;
+		int[] order = new int[corpus.sentenceNum];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+		Random random = new Random(options.seed);
+		
+		double eta = options.learningRate;
+		if(eta <= 0){
+			shuffle(order, random);
+			eta = this.calibrate(Arrays.copyOf(order, Math.min(options.calibrationSize, order.length)));
+			System.out.printf("学习率：%f\n", eta);
+		}
+		
+		AdaGrad ada = new AdaGrad(n, eta);
+		Evaluator evaluator = this.newEvaluator();
+		double preLoss = 0;
+		for(int epoch = 0; epoch < options.epochs; epoch++){
+			shuffle(order, random);
+			double loss = ada.epoch(order);
+			this.initTransitionCache();
+			double relLoss = epoch == 0 ? 1 : (preLoss - loss) / preLoss;
+			preLoss = loss;
+			System.out.printf("epoch=%d  loss=%f  每词损失:%f  相对损失:%f\n",epoch,loss,nll / tokenNum,relLoss);
+			if(evaluator != null && epoch % options.evalInterval == 0)
+				evaluator.evaluate(epoch);
+			if(evaluator != null && evaluator.shouldStop())
+				break;
+		}
+		if(evaluator != null)
+			evaluator.finish();
+		this.writeModel();
+	}
+	
+	/**
+	 * 使用平均感知机进行训练：每轮打乱句子的顺序，用当前参数viterbi解码每个句子，
+	 * 预测错误的位置上，正确标签的特征函数权值加1，预测标签的特征函数权值减1 <br/>
+	 * 最终的参数为训练过程中所有参数的平均值，使用延迟求和：sum记录每次更新量乘以更新时的步数，平均值为w - sum / step <br/>
+	 * 与其他算法相同，按options.evalInterval每隔若干轮评价一次，评价的是当时的平均参数；早停模式下写入评价最好的平均参数
+	 */
+	public void trainPerceptron(){
+		int K = crfParams.K;
+		double[] w = crfParams.funWeight;
+		double[] sum = new double[w.length];
+		int[] labels = corpus.labels;
+		int[] order = new int[corpus.sentenceNum];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+		Random random = new Random(options.seed);
+		Lattice lattice = shardLattices[0];
+		long step = 1;
+		Evaluator evaluator = this.newEvaluator();
+		
+		this.initTransitionCache();
+		for(int epoch = 0; epoch < options.epochs; epoch++){
+			shuffle(order, random);
+			int errors = 0;
+			for(int s : order){
+				int first = corpus.sentenceStart[s];
+				int[] path = this.viterbi(s, lattice);
+				boolean updated = false;
+				for(int i = 0; i < lattice.length; i++){
+					int t = first + i;
+					if(labels[t] != path[i]){
+						errors++;
+						updated = true;
+						for(int j = corpus.uFeatureStart[t]; j < corpus.uFeatureStart[t + 1]; j++)
+							update(w, sum, corpus.uFeatureArray[j], labels[t], path[i], step);
+					}
+					if(i > 0 && (labels[t - 1] != path[i - 1] || labels[t] != path[i])){
+						updated = true;
+						int gold = labels[t - 1] * K + labels[t];
+						int pred = path[i - 1] * K + path[i];
+						for(int j = corpus.bFeatureStart[t]; j < corpus.bFeatureStart[t + 1]; j++)
+							update(w, sum, corpus.bFeatureArray[j], gold, pred, step);
 					}
 				}
+				if(updated)
+					this.initTransitionCache();
+				step++;
 			}
+			System.out.printf("epoch=%d  错误单词数:%d  错误率:%f\n", epoch, errors, 1.0 * errors / tokenNum);
+			if(evaluator != null && epoch % options.evalInterval == 0)
+				evaluator.evaluate(epoch, sum, step);
+			if(evaluator != null && evaluator.shouldStop())
+				break;
 		}
-		return alpha;
+		
+		for(int j = 0; j < w.length; j++)
+			w[j] -= sum[j] / step;
+		this.initTransitionCache();
+		if(evaluator != null)
+			evaluator.finish();
+		this.writeModel();
 	}
 	
 	/**
-	 * 计算前向后向算法中的beta矩阵
-	 * @param Ms 句子每个单词的M矩阵组成的列表
-	 * @return beta矩阵
+	 * 感知机的一次更新：特征的正确函数权值加value，预测函数权值减value，特征哈希模式下value可能为-1
+	 * @param addr 特征的首地址，~addr表示取值为-1
+	 * @param gold 正确标签对应的偏移
+	 * @param pred 预测标签对应的偏移
 	 */
-	public double[][] beta(ArrayList<double[][]> Ms) {
-		double[][] beta = new double[crfParams.K][Ms.size()];
-		for (int i = Ms.size() - 1; i >= 0; i--) {
-			if (i == Ms.size() - 1) {
-				for (int k = 0; k < crfParams.K; k++)
-					beta[k][i] = 1;
-			} else {
-				double[][] M = Ms.get(i + 1);
-				for (int k = 0; k < crfParams.K; k++) {
-					for (int nextK = 0; nextK < crfParams.K; nextK++) {
-						beta[k][i] += beta[nextK][i + 1] * M[k][nextK];
-					}
-				}
+	private static void update(double[] w, double[] sum, int addr, int gold, int pred, long step){
+		double value = 1;
+		if(addr < 0){
+			addr = ~addr;
+			value = -1;
+		}
+		w[addr + gold] += value;
+		sum[addr + gold] += step * value;
+		w[addr + pred] -= value;
+		sum[addr + pred] -= step * value;
+	}
+	
+	/**
+	 * 在样本句子上选择AdaGrad的学习率：从0.1开始，每次乘以或除以2，
+	 * 用各个学习率在样本上训练一轮，选择训练后样本上目标函数最小的学习率；每次尝试之后恢复原来的参数
+	 * @param sample 样本句子
+	 * @return 学习率
+	 */
+	private double calibrate(int[] sample){
+		double[] weight = crfParams.funWeight.clone();
+		double best = Double.POSITIVE_INFINITY;
+		double bestEta = 0.1;
+		for(int direction = 0; direction < 2; direction++){
+			double eta = direction == 0 ? 0.1 : 0.05;
+			for(int trial = 0; trial < 10; trial++, eta = direction == 0 ? eta * 2 : eta / 2){
+				new AdaGrad(weight.length, eta).epoch(sample);
+				this.initTransitionCache();
+				double loss = this.sampleLoss(sample);
+				System.arraycopy(weight, 0, crfParams.funWeight, 0, weight.length);
+				if(Double.isNaN(loss) || loss >= best)
+					break;
+				best = loss;
+				bestEta = eta;
 			}
 		}
-		return beta;
+		this.initTransitionCache();
+		return bestEta;
 	}
 	
+	/**
+	 * 样本句子上的目标函数：负对数似然加上按句子数分配的L2正则项
+	 */
+	private double sampleLoss(int[] sample){
+		Lattice lattice = shardLattices[0];
+		double loss = 0;
+		for(int s : sample){
+			this.computeMs(s, lattice);
+			this.alpha(lattice);
+			loss += this.logZeta(lattice) - this.pathScore(s, corpus.labels);
+		}
+		double norm = 0;
+		for(double w : crfParams.funWeight)
+			norm += w * w;
+		return loss + 0.5 * norm / delta2 * sample.length / corpus.sentenceNum;
+	}
 	
 	/**
-	 * 将crfParmas写入文件
+	 * 第s个句子标记为labels时所有特征函数的权值之和
+	 * @param labels 所有单词的标签，按单词在corpus中的编号索引
 	 */
-	private void writeModel(){
-		FileOutputStream fos;
-		ObjectOutputStream oos;
-		try {
-			fos = new FileOutputStream(this.modelFile);
-			oos = new ObjectOutputStream(fos);
-			oos.writeObject(crfParams);
-			oos.close();
-			
-		}catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+	private double pathScore(int s, int[] labels){
+		int first = corpus.sentenceStart[s];
+		double score = 0;
+		for(int t = first, end = corpus.sentenceStart[s + 1]; t < end; t++){
+			score += this.sumOfuFunctions(t, labels[t]);
+			if(t > first)
+				score += this.sumOfbFuntions(t, labels[t - 1], labels[t]);
+		}
+		return score;
+	}
+	
+	private static void shuffle(int[] order, Random random){
+		for(int i = order.length - 1; i > 0; i--){
+			int j = random.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
 		}
 	}
 	
 	/**
-	 * 根据当前sentences中存储的句子，初始化：crfParams.uFeatureAddr，crfParams.bFeatureAddr，crfParams.funWeight<br/>
-	 * 
-	 * @param threshold 特征频次阈值，出现次数小于该阈值的特征被删除
+	 * AdaGrad的状态：每个特征函数的梯度平方和，以及正则项最近一次更新到的步数 <br/>
+	 * 第j个特征函数的学习率为eta / sqrt(sumSquare[j])
 	 */
-	public void initFeatureInfo(int threshold) {
-		// 首先：crfParams.uFeatureAddr和crfParams.bFeatureAddr中存储每个特征出现的次数，
-		crfParams.uFeatureAddr = new HashMap<String, Integer>();
-		crfParams.bFeatureAddr = new HashMap<String, Integer>();
-		String feature;
-
-		// Entry<String,Integer[]> temps = templates.;
-		for (int i = 0; i < sentences.size(); i++) {
-			String[][] sentence = sentences.get(i);
-			for (int m = 0; m < sentence.length; m++) {
-				Iterator<Entry<String, Integer[]>> it = crfParams.templates.entrySet()
-						.iterator();
-				while (it.hasNext()) {
-					Entry<String, Integer[]> entry = it.next();
-					feature = entry.getKey() + ":";
-					Integer[] numbers = entry.getValue();
-
-					for (int k = 0; k < numbers.length; k = k + 2) {
-						if (numbers[k] + m < 0|| numbers[k] + m >= sentence.length)
-							continue;
-						feature += sentence[numbers[k] + m][numbers[k + 1]];
-					}
-
-					if (feature.startsWith("U")) {// 状态特征模板
-						if (crfParams.uFeatureAddr.containsKey(feature))
-							crfParams.uFeatureAddr.put(feature,
-									1 + crfParams.uFeatureAddr.get(feature));
-						else
-							crfParams.uFeatureAddr.put(feature, 1);
-					} else {// 转移特征模板
-						if (crfParams.bFeatureAddr.containsKey(feature))
-							crfParams.bFeatureAddr.put(feature,
-									1 + crfParams.bFeatureAddr.get(feature));
-						else
-							crfParams.bFeatureAddr.put(feature, 1);
-					}
-				}
+	private class AdaGrad {
+		final double eta;
+		
+		/**
+		 * 每一步每个特征函数的L2正则系数：batchSize / (delta2 * sentenceNum)
+		 */
+		final double lambda;
+		
+		final double[] sumSquare;
+		
+		/**
+		 * 第j个特征函数的正则项已经衰减到第last[j]步之前
+		 */
+		final int[] last;
+		
+		/**
+		 * 可重复使用的梯度缓冲区，每次更新后只清空用到的部分
+		 */
+		final double[] gradient;
+		
+		/**
+		 * 当前的步数
+		 */
+		int step;
+		
+		AdaGrad(int n, double eta){
+			this.eta = eta;
+			this.lambda = Math.max(1, options.batchSize) / (delta2 * corpus.sentenceNum);
+			this.sumSquare = new double[n];
+			this.last = new int[n];
+			this.gradient = new double[n];
+		}
+		
+		/**
+		 * 按order的顺序遍历句子训练一轮
+		 * @return 本轮的目标函数，负对数似然在更新前计算，nll记录其中的负对数似然
+		 */
+		double epoch(int[] order){
+			Lattice lattice = shardLattices[0];
+			int batchSize = Math.max(1, options.batchSize);
+			double loss = 0;
+			for(int from = 0; from < order.length; from += batchSize){
+				int to = Math.min(order.length, from + batchSize);
+				for(int b = from; b < to; b++)
+					this.visit(order[b], true);
+				initTransitionCache();
+				for(int b = from; b < to; b++)
+					loss += sentenceLoss(order[b], gradient, lattice);
+				flushTransExpect(gradient, lattice);
+				for(int b = from; b < to; b++)
+					this.visit(order[b], false);
+				step++;
 			}
+			nll = loss;
+			this.finish();
+			double norm = 0;
+			for(double w : crfParams.funWeight)
+				norm += w * w;
+			return loss + 0.5 * norm / delta2 * order.length / corpus.sentenceNum;
 		}
-
-		// 精简特征
-		Iterator<String> it = crfParams.uFeatureAddr.keySet().iterator();
-		while (it.hasNext()) {
-			feature = it.next();
-			if (crfParams.uFeatureAddr.get(feature) < threshold) {
-				it.remove();
-				crfParams.uFeatureAddr.remove(feature);
+		
+		/**
+		 * 遍历第s个句子用到的所有特征函数
+		 * @param decay 为true时补上跳过的正则项衰减，否则按梯度更新
+		 */
+		void visit(int s, boolean decay){
+			int K = crfParams.K;
+			int first = corpus.sentenceStart[s];
+			int end = corpus.sentenceStart[s + 1];
+			for(int j = corpus.uFeatureStart[first]; j < corpus.uFeatureStart[end]; j++){
+				int addr = corpus.uFeatureArray[j];
+				this.apply(addr < 0 ? ~addr : addr, K, decay);
+			}
+			for(int j = corpus.bFeatureStart[first]; j < corpus.bFeatureStart[end]; j++){
+				int addr = corpus.bFeatureArray[j];
+				this.apply(addr < 0 ? ~addr : addr, K * K, decay);
 			}
 		}
-		it = crfParams.bFeatureAddr.keySet().iterator();
-		while (it.hasNext()) {
-			feature = it.next();
-			if (crfParams.bFeatureAddr.get(feature) <= threshold) {
-				it.remove();
-				crfParams.bFeatureAddr.remove(feature);
+		
+		void apply(int addr, int width, boolean decay){
+			double[] w = crfParams.funWeight;
+			for(int j = addr; j < addr + width; j++){
+				if(decay){
+					this.decay(j, step);
+				} else if(last[j] <= step){// 同一步中重复出现的特征函数只更新一次
+					double g = gradient[j] + lambda * w[j];
+					gradient[j] = 0;
+					sumSquare[j] += g * g;
+					if(sumSquare[j] > 0)
+						w[j] -= eta * g / Math.sqrt(sumSquare[j]);
+					last[j] = step + 1;
+				}
 			}
 		}
-
-		uFeatureNum = crfParams.uFeatureAddr.size();
-		bFeatureNum = crfParams.bFeatureAddr.size();
-
-		crfParams.funWeight = new double[uFeatureNum * crfParams.K + bFeatureNum * crfParams.K * crfParams.K];
-
-		it = crfParams.uFeatureAddr.keySet().iterator();
-		int index = 0;
-		while (it.hasNext()) {
-			crfParams.uFeatureAddr.put(it.next(), index);
-			index = index + crfParams.K;
+		
+		/**
+		 * 补上第j个特征函数在[last[j], to)之间跳过的正则项衰减，跳过的每一步使用相同的学习率，见trainAdaGrad
+		 */
+		void decay(int j, int to){
+			int skipped = to - last[j];
+			double[] w = crfParams.funWeight;
+			if(skipped > 0 && w[j] != 0){
+				if(sumSquare[j] == 0){// 热启动的权值还没有梯度，以第一步正则项的梯度开始
+					double g = lambda * w[j];
+					sumSquare[j] = g * g;
+				}
+				double rate = Math.max(0, 1 - eta * lambda / Math.sqrt(sumSquare[j]));
+				w[j] *= Math.pow(rate, skipped);
+			}
+			last[j] = Math.max(last[j], to);
 		}
 		
-		it = crfParams.bFeatureAddr.keySet().iterator();
-		while (it.hasNext()) {
-			crfParams.bFeatureAddr.put(it.next(), index);
-			index = index + crfParams.K * crfParams.K;
+		/**
+		 * 把所有特征函数的正则项衰减补到当前步
+		 */
+		void finish(){
+			for(int j = 0; j < last.length; j++)
+				this.decay(j, step);
 		}
 	}
 	
-	
 	/**
-	 * 读取所有训练句子，并初始化每个句子对应的标签数组
-	 * @param trainFile
+	 * 用当前参数计算corpus上句子级别和单词级别的准确率，调用前需要调用initTransitionCache <br/>
+	 * threadNum大于1时各分片在fork-join线程池中同时解码；外存训练时依次读入每一块 <br/>
+	 * 解码的分片每次按当前的corpus重新划分，不使用训练时的shardStart，因此sweep和crossValidate把corpus换成评价语料后也可以调用；
+	 * 各分片解码的句子数和单词数之和必须与corpus相同，否则抛出IllegalStateException
+	 * @return 句子级别的准确率和单词级别的准确率
 	 */
-	public void initSentencesAndLabels(String trainFile){
-		sentences = new ArrayList<String[][]>();
-		sentenceLabels = new ArrayList<Integer[]>();
-		crfParams.labels = new ArrayList<String>();
-		try {
-			BufferedReader in = new BufferedReader(new FileReader(trainFile));
-			while(true){
-				String[][] tem = this.readSingleSentence(in);
-				if(tem.length == 0)
-					break;
-				sentences.add(tem);
-				sentenceLabels.add(this.mapSentenceLabelToNum(tem));
+	private double[] checkAllaccuracy(){
+		double[] p = new double[2];
+		long corS = 0;//正确的句子数
+		long corT  = 0;//正确的单词数
+		long tokens = 0;//所有的单词数
+		long sentences = 0;//所有的句子数
+		long decodedT = 0;//解码的单词数
+		long decodedS = 0;//解码的句子数
+		
+		int chunkNum = spill == null ? 1 : spill.chunkNum();
+		for(int c = 0; c < chunkNum; c++){
+			if(spill != null)
+				this.readChunk(c);
+			int[] bounds = split(corpus, threadNum);
+			int shardNum = bounds.length - 1;
+			if(shardNum == 1)
+				this.accuracy(0, corpus.sentenceNum, shardLattices[0], shardCorrect[0]);
+			else
+				pool.invoke(new AccuracyTask(bounds, 0, shardNum));
+			for(int i = 0; i < shardNum; i++){
+				corS += shardCorrect[i][0];
+				corT += shardCorrect[i][1];
+				decodedS += shardCorrect[i][2];
+				decodedT += shardCorrect[i][3];
+			}
+			tokens += corpus.tokenNum;
+			sentences += corpus.sentenceNum;
+		}
+		if(decodedS != sentences || decodedT != tokens)
+			throw new IllegalStateException("解码的句子数或单词数与语料不同：" + decodedS + "/" + sentences + "，" + decodedT + "/" + tokens);
+		p[0] = 1.0 * corS / sentences;
+		p[1] = 1.0 * corT / tokens;
+		return p;
+	}
+	
+	/**
+	 * 解码句子[from, to)，统计正确的句子数和单词数
+	 * @param correct 结果，依次为正确的句子数、正确的单词数、解码的句子数和解码的单词数
+	 */
+	private void accuracy(int from, int to, Lattice lattice, int[] correct){
+		int corS = 0;
+		int corT = 0;
+		int decoded = 0;
+		for(int i = from; i < to; i++){
+			int first = corpus.sentenceStart[i];
+			int[] pLabels = this.viterbi(i, lattice);//预测值，只有前lattice.length个有效
+			boolean right = true;//句子是否完全正确
+			
+			for(int j = 0; j < lattice.length; j++){
+				if(corpus.labels[first + j] == pLabels[j]){
+					corT++;
+				}
+				else{
+					right = false;
+				}
+			}
+			if(right)
+				corS++;
+			decoded += lattice.length;
+		}
+		correct[0] = corS;
+		correct[1] = corT;
+		correct[2] = to - from;
+		correct[3] = decoded;
+	}
+	
+	/**
+	 * 解码分片[from, to)的fork-join任务，每个分片写入自己的统计结果
+	 */
+	private class AccuracyTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * 解码的语料的分片划分
+		 */
+		private final int[] bounds;
+		private final int from;
+		private final int to;
+
+		AccuracyTask(int[] bounds, int from, int to) {
+			this.bounds = bounds;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				accuracy(bounds[from], bounds[from + 1], shardLattices[from], shardCorrect[from]);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new AccuracyTask(bounds, from, mid), new AccuracyTask(bounds, mid, to));
+			}
+		}
+	}
+	
+	/**
+	 * 按训练选项创建评价器，options.evalInterval为0时返回null <br/>
+	 * 评价的数据为：options.devFile，不为null时；否则为训练数据中随机抽样的options.evalSample个句子，大于0时
+	 * （外存训练时从第一块中抽样；内存中的训练数据不多于evalSample个句子时不抽样）；否则为全部训练数据
+	 */
+	private Evaluator newEvaluator(){
+		if(options.evalInterval <= 0)
+			return null;
+		try {
+			if(options.devFile != null)
+				return new Evaluator("开发集", this.encode(options.devFile));
+			if(options.evalSample > 0 && (spill != null || options.evalSample < corpus.sentenceNum)){
+				FeatureCorpus source = spill == null ? corpus : spill.read(0, new FeatureCorpus());
+				int[] order = new int[source.sentenceNum];
+				for(int i = 0; i < order.length; i++)
+					order[i] = i;
+				shuffle(order, new Random(options.seed));
+				int[] sample = Arrays.copyOf(order, Math.min(options.evalSample, order.length));
+				Arrays.sort(sample);
+				return new Evaluator("抽样", source.subset(sample));
+			}
+			return new Evaluator("训练集", spill == null ? corpus : null);
+		} catch (IOException e) {
+			throw new RuntimeException("无法读取评价数据", e);
+		}
+	}
+	
+	/**
+	 * 训练过程中的评价器：复制当前参数的快照，在快照上解码评价数据，不修改训练中的参数和转移分数缓存 <br/>
+	 * 快照保存在一个共享特征字典的候选模型中；options.evalBackground为true时在后台线程中解码，训练不需要等待，
+	 * 下一次评价开始前等待上一次结束，因此最多只有一个快照；否则使用训练的fork-join线程池同时解码 <br/>
+	 * options.patience大于0时为早停模式：保存单词准确率最高的快照，连续patience次评价没有提高时停止训练，
+	 * 训练结束时把最好的快照复制回crfParams.funWeight；在后台评价时停止的判断可能晚一次评价
+	 */
+	private class Evaluator {
+		/**
+		 * 评价数据的名称
+		 */
+		final String name;
+		
+		/**
+		 * 保存参数快照和评价数据的模型
+		 */
+		final CRFTrainer model;
+		
+		/**
+		 * 后台线程，不在后台评价时为null
+		 */
+		final ExecutorService background;
+		
+		/**
+		 * 正在进行的后台评价
+		 */
+		Future<?> pending;
+		
+		/**
+		 * 早停模式下单词准确率最高的参数，及其准确率和迭代次数
+		 */
+		double[] bestWeight;
+		double bestScore = -1;
+		int bestIter = -1;
+		
+		/**
+		 * 连续没有提高的评价次数，由后台线程写入
+		 */
+		volatile int stale;
+		
+		/**
+		 * @param corpus 评价数据，为null时为外存训练的语料文件
+		 */
+		Evaluator(String name, FeatureCorpus corpus) throws IOException {
+			this.name = name;
+			boolean async = options.evalBackground;
+			model = new CRFTrainer(CRFTrainer.this, corpus != null ? corpus : new FeatureCorpus(), Math.sqrt(delta2), async ? 1 : threadNum);
+			if(corpus == null)
+				model.spill = new CorpusFile(spillPath);
+			background = async ? Executors.newSingleThreadExecutor() : null;
+		}
+		
+		/**
+		 * 评价当前参数，在后台评价时立即返回
+		 * @param iter 当前的迭代次数，用于输出
+		 */
+		void evaluate(int iter){
+			this.evaluate(iter, null, 0);
+		}
+		
+		/**
+		 * 评价平均感知机的平均参数w - sum / step，在后台评价时立即返回
+		 * @param iter 当前的迭代次数，用于输出
+		 * @param sum 延迟求和的更新量，为null时评价当前参数
+		 * @param step 当前的步数
+		 */
+		void evaluate(final int iter, double[] sum, long step){
+			this.waitPending();
+			double[] w = crfParams.funWeight;
+			double[] snapshot = model.crfParams.funWeight;
+			if(sum == null)
+				System.arraycopy(w, 0, snapshot, 0, w.length);
+			else
+				for(int j = 0; j < w.length; j++)
+					snapshot[j] = w[j] - sum[j] / step;
+			Runnable task = new Runnable() {
+				public void run() {
+					model.initTransitionCache();
+					double[] p = model.checkAllaccuracy();
+					System.out.printf("%siter=%d  %s句子准确率：%f  单词准确率:%f\n",logPrefix,iter,name,p[0],p[1]);
+					if(options.patience > 0)
+						checkpoint(iter, p[1]);
+				}
+			};
+			if(background != null)
+				pending = background.submit(task);
+			else
+				task.run();
+		}
+		
+		/**
+		 * 早停模式下记录最好的快照
+		 */
+		void checkpoint(int iter, double score){
+			if(score > bestScore){
+				if(bestWeight == null)
+					bestWeight = new double[model.crfParams.funWeight.length];
+				System.arraycopy(model.crfParams.funWeight, 0, bestWeight, 0, bestWeight.length);
+				bestScore = score;
+				bestIter = iter;
+				stale = 0;
+			} else {
+				stale++;
+			}
+		}
+		
+		/**
+		 * 早停模式下是否已经连续patience次评价没有提高
+		 */
+		boolean shouldStop(){
+			return options.patience > 0 && stale >= options.patience;
+		}
+		
+		void waitPending(){
+			if(pending == null)
+				return;
+			try {
+				pending.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			pending = null;
+		}
+		
+		/**
+		 * 等待正在进行的评价，并释放后台线程和语料文件；早停模式下把最好的快照复制回crfParams.funWeight <br/>
+		 * 后台评价写入的bestWeight只有在waitPending之后才对训练线程可见，因此训练线程只能通过返回值判断是否有快照
+		 * @return 是否恢复了最好的快照
+		 */
+		boolean finish(){
+			this.waitPending();
+			boolean restored = bestWeight != null;
+			if(restored){
+				System.arraycopy(bestWeight, 0, crfParams.funWeight, 0, bestWeight.length);
+				initTransitionCache();
+				System.out.printf("%s使用第%d次迭代的参数  %s单词准确率:%f\n",logPrefix,bestIter,name,bestScore);
+			}
+			if(background != null)
+				background.shutdown();
+			if(model.spill != null){
+				try {
+					model.spill.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			return restored;
+		}
+	}
+
+	/**
+	 * 为每个线程分配工作区；语料全部在内存中时，同时划分分片
+	 */
+	private void initShards() {
+		tokenNum = spill != null ? spill.tokenNum : corpus.tokenNum;
+		shardLoss = new double[threadNum];
+		shardLattices = new Lattice[threadNum];
+		for (int i = 0; i < threadNum; i++)
+			shardLattices[i] = new Lattice(crfParams.K);
+		shardGradients = new double[threadNum][];
+		shardBlocks = new int[threadNum][];
+		shardCorrect = new int[threadNum][4];
+		uWeightEnd = uFeatureNum * crfParams.K;
+		if (threadNum > 1 && pool == null)
+			pool = new ForkJoinPool(threadNum);
+		if (spill == null) {
+			this.initTransitionCache();// 得到staticBFeatures
+			this.splitShards();
+		} else {
+			chunkShardStart = new int[spill.chunkNum()][];
+			chunkShardBlocks = new int[spill.chunkNum()][][];
+		}
+	}
+
+	/**
+	 * 将corpus中的句子按单词数均匀地划分为最多threadNum个连续的分片，并得到每个分片用到的特征 <br/>
+	 * 划分结果只与threadNum和corpus有关；分片的梯度缓冲区在第一次用到时分配，之后重复使用
+	 */
+	private void splitShards() {
+		shardStart = split(corpus, threadNum);
+		int shardNum = shardStart.length - 1;
+		for (int i = 1; i < shardNum; i++) {
+			if (shardGradients[i] == null)
+				shardGradients[i] = new double[crfParams.funWeight.length];
+			shardBlocks[i] = this.blocks(shardStart[i], shardStart[i + 1]);
+		}
+	}
+
+	/**
+	 * 将corpus中的句子按单词数均匀地划分为最多threadNum个连续的分片
+	 * @return 分片的起始句子，第i个分片为[start[i], start[i+1])
+	 */
+	private static int[] split(FeatureCorpus corpus, int threadNum) {
+		int shardNum = Math.max(1, Math.min(threadNum, corpus.sentenceNum));
+		int[] start = new int[shardNum + 1];
+		long tokens = corpus.tokenNum;
+
+		int shard = 1;
+		for (int s = 0; s < corpus.sentenceNum && shard < shardNum; s++) {
+			if ((long) corpus.sentenceStart[s + 1] * shardNum >= tokens * shard) {
+				start[shard++] = s + 1;
+			}
+		}
+		for (; shard <= shardNum; shard++)
+			start[shard] = corpus.sentenceNum;
+		return start;
+	}
+
+	/**
+	 * 外存训练时把语料文件的第c块读入corpus，并换上该块的分片；该块已经在corpus中时不再读取 <br/>
+	 * 每一块只在第一次读入时划分分片，之后的迭代直接使用保存的结果
+	 */
+	private void readChunk(int c) {
+		if (c == loadedChunk)
+			return;
+		try {
+			spill.read(c, corpus);
+		} catch (IOException e) {
+			throw new RuntimeException("读取语料文件失败：" + spillPath, e);
+		}
+		loadedChunk = c;
+		if (chunkShardStart[c] == null) {
+			shardBlocks = new int[threadNum][];
+			this.splitShards();
+			chunkShardStart[c] = shardStart;
+			chunkShardBlocks[c] = shardBlocks;
+		} else {
+			shardStart = chunkShardStart[c];
+			shardBlocks = chunkShardBlocks[c];
+		}
+	}
+	
+	/**
+	 * 句子[from, to)用到的所有特征的首地址，升序、不重复
+	 */
+	private int[] blocks(int from, int to) {
+		int first = corpus.sentenceStart[from];
+		int end = corpus.sentenceStart[to];
+		int uFrom = corpus.uFeatureStart[first], uTo = corpus.uFeatureStart[end];
+		int bFrom = corpus.bFeatureStart[first], bTo = corpus.bFeatureStart[end];
+		int[] addrs = new int[uTo - uFrom + bTo - bFrom + staticBFeatures.length];
+		int n = 0;
+		for (int j = uFrom; j < uTo; j++)
+			addrs[n++] = corpus.uFeatureArray[j];
+		for (int j = bFrom; j < bTo; j++)
+			addrs[n++] = corpus.bFeatureArray[j];
+		for (int addr : staticBFeatures)
+			addrs[n++] = addr;
+		for (int j = 0; j < n; j++)
+			if (addrs[j] < 0)// 特征哈希模式下符号为负的特征
+				addrs[j] = ~addrs[j];
+		Arrays.sort(addrs);
+		int size = 0;
+		for (int j = 0; j < n; j++) {
+			if (size == 0 || addrs[j] != addrs[size - 1])
+				addrs[size++] = addrs[j];
+		}
+		return Arrays.copyOf(addrs, size);
+	}
+
+	/**
+	 * 根据当前参数，计算训练损失函数的值，并计算参数的梯度向量<br/>
+	 * threadNum大于1时，每个分片在fork-join线程池中计算各自的梯度，再按分片顺序归约，因此结果与线程调度无关 <br/>
+	 * 除了梯度向量的清零和正则项，其余的计算和内存访问只与句子用到的特征有关，与特征函数的总数无关，且不分配内存 <br/>
+	 * 外存训练时依次读入语料文件的每一块，逐块累加负对数似然和梯度；每一块的分片只在第一次迭代时划分，之后除了读入语料也不分配内存
+	 * @param gradient 梯度向量
+	 * @return 损失函数的值
+	 */
+	public double loss(double[] gradient) {
+		double loss = 0;
+		this.initTransitionCache();
+		Arrays.fill(gradient, 0);
+
+		if (spill == null) {
+			loss = this.corpusLoss(gradient);
+		} else {
+			for (int c = 0; c < spill.chunkNum(); c++) {
+				this.readChunk(c);
+				loss += this.corpusLoss(gradient);
+			}
+		}
+		nll = loss;
+
+		for(int k = 0; k < crfParams.funWeight.length; k++){
+			loss += 0.5 * crfParams.funWeight[k] * crfParams.funWeight[k] / delta2;
+			gradient[k] = gradient[k] + crfParams.funWeight[k] / delta2;
+		}
+		return loss;
+	}
+
+	/**
+	 * 计算corpus中所有句子的负对数似然，并把梯度累加到gradient中
+	 * @param gradient 梯度向量
+	 * @return 负对数似然之和
+	 */
+	private double corpusLoss(double[] gradient) {
+		double loss = 0;
+		int shardNum = shardStart.length - 1;
+		if (shardNum == 1) {
+			shardLoss[0] = this.shardLoss(0, corpus.sentenceNum, gradient, shardLattices[0]);
+		} else {
+			shardGradients[0] = gradient;
+			pool.invoke(new ShardTask(0, shardNum));
+			shardGradients[0] = null;
+			pool.invoke(new ReduceTask(gradient, 0, gradient.length));
+		}
+		for (int i = 0; i < shardNum; i++)
+			loss += shardLoss[i];
+		return loss;
+	}
+
+	/**
+	 * 计算句子[from, to)的负对数似然，并把梯度累加到gradient中
+	 * @param from 起始句子
+	 * @param to 结束句子（不包含）
+	 * @param gradient 梯度缓冲区
+	 * @return 这些句子的负对数似然之和
+	 */
+	private double shardLoss(int from, int to, double[] gradient, Lattice lattice) {
+		double loss = 0;
+		Arrays.fill(lattice.edge, 0);
+		for (int s = from; s < to; s++)// 遍历所有句子
+			loss += this.sentenceLoss(s, gradient, lattice);
+		this.flushTransExpect(gradient, lattice);
+		return loss;
+	}
+
+	/**
+	 * 计算第s个句子的负对数似然，并把梯度累加到gradient中 <br/>
+	 * 使用转移分数缓存的位置上，转移特征函数的期望减去经验值累加到lattice.edge中，由flushTransExpect统一加到gradient中
+	 * @param s 句子索引
+	 * @param gradient 梯度缓冲区
+	 * @param lattice 工作区
+	 * @return 句子的负对数似然
+	 */
+	private double sentenceLoss(int s, double[] gradient, Lattice lattice) {
+		int addr;
+		int K = crfParams.K;
+		int[] uFeatureArray = corpus.uFeatureArray;
+		int[] bFeatureArray = corpus.bFeatureArray;
+		int[] uFeatureStart = corpus.uFeatureStart;
+		int[] bFeatureStart = corpus.bFeatureStart;
+		int[] labels = corpus.labels;
+		double[] transExpect = lattice.edge;
+
+		int first = corpus.sentenceStart[s];// 句子第一个单词的编号
+		this.computeMs(s, lattice);
+		this.alpha(lattice);
+		this.beta(lattice);
+		double[] ms = lattice.ms;
+		double[] alpha = lattice.alpha;
+		double[] beta = lattice.beta;
+		double[] scale = lattice.scale;
+			
+		double loss = this.logZeta(lattice);
+
+		for (int i = 0; i < lattice.length; i++) {// 遍历每个单词
+			int base = i * K * K;// 位置i处M矩阵的起始地址
+			int t = first + i;// 单词的编号
+			int label = labels[t];
+
+			for(int j = uFeatureStart[t]; j < uFeatureStart[t + 1]; j++){//更新状态特征函数的梯度
+				addr = uFeatureArray[j];//特征索引
+				double value = 1;//特征的取值，特征哈希模式下可能为-1
+				if (addr < 0) {
+					addr = ~addr;
+					value = -1;
+				}
+				loss = loss - value * crfParams.funWeight[addr + label];
+				gradient[addr + label] -= value;
+				
+				for(int k = 0; k < K; k++){//addr处，第k个特征函数的期望
+					gradient[addr + k] += value * alpha[i * K + k]*beta[i * K + k];
+				}
+			}
+			if(i > 0 && this.isStaticTrans(t)){//转移特征与位置无关，先累加到transExpect中
+				loss -= transScore[labels[t-1] * K + label];
+				transExpect[labels[t-1] * K + label] -= 1;
+				
+				for(int preK = 0; preK < K; preK++){
+					for(int k = 0; k < K;k++){
+						transExpect[preK * K + k] +=  alpha[(i-1) * K + preK]*beta[i * K + k] * ms[base + preK * K + k] / scale[i];
+					}
+				}
+			}
+			else if(i > 0){
+				for(int j = bFeatureStart[t]; j < bFeatureStart[t + 1]; j++){//更新转移特征函数的梯度
+					addr = bFeatureArray[j];//特征索引
+					double value = 1;//特征的取值，特征哈希模式下可能为-1
+					if (addr < 0) {
+						addr = ~addr;
+						value = -1;
+					}
+					loss -= value * crfParams.funWeight[addr + labels[t-1] * K + label];
+					gradient[addr + labels[t-1] * K + label] -= value;
+					
+					for(int preK = 0; preK < K; preK++){
+						for(int k = 0; k < K;k++){
+							gradient[addr + preK * K + k] +=  value * alpha[(i-1) * K + preK]*beta[i * K + k] * ms[base + preK * K + k] / scale[i];
+						}
+					}
+				}
+			}
+		}
+		return loss;
+	}
+
+	/**
+	 * 把lattice.edge中累加的转移特征函数的期望加到staticBFeatures的梯度中，并清空lattice.edge
+	 */
+	private void flushTransExpect(double[] gradient, Lattice lattice) {
+		int K = crfParams.K;
+		double[] transExpect = lattice.edge;
+		for (int f = 0; f < staticBFeatures.length; f++) {
+			int addr = staticBFeatures[f];
+			if (addr >= 0) {
+				for (int mn = 0; mn < K * K; mn++)
+					gradient[addr + mn] += transExpect[mn];
+			} else {// 特征哈希模式下符号为负的特征
+				for (int mn = 0; mn < K * K; mn++)
+					gradient[~addr + mn] -= transExpect[mn];
+			}
+		}
+		Arrays.fill(transExpect, 0);
+	}
+
+	/**
+	 * 计算分片[from, to)的fork-join任务，每个分片写入自己的梯度缓冲区和损失值
+	 */
+	private class ShardTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+
+		ShardTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				shardLoss[from] = shardLoss(shardStart[from], shardStart[from + 1], shardGradients[from], shardLattices[from]);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ShardTask(from, mid), new ShardTask(mid, to));
+			}
+		}
+	}
+
+	/**
+	 * 把第1个及之后的分片的梯度缓冲区归约到梯度向量的[from, to)区间，每一维都按分片顺序相加，保证结果是确定的 <br/>
+	 * 只访问每个分片用到的特征，并在相加后把缓冲区清零，供下一次迭代使用
+	 */
+	private class ReduceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private static final int BLOCK = 1 << 16;
+		private final double[] gradient;
+		private final int from;
+		private final int to;
+
+		ReduceTask(double[] gradient, int from, int to) {
+			this.gradient = gradient;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BLOCK) {
+				int K = crfParams.K;
+				for (int i = 1; i < shardStart.length - 1; i++) {
+					double[] shard = shardGradients[i];
+					int[] blocks = shardBlocks[i];
+					// 第一个可能与[from, to)相交的特征，转移特征最多占K * K维
+					int b = Arrays.binarySearch(blocks, Math.max(0, from - K * K + 1));
+					if (b < 0)
+						b = ~b;
+					for (; b < blocks.length && blocks[b] < to; b++) {
+						int addr = blocks[b];
+						int end = Math.min(to, addr + (addr < uWeightEnd ? K : K * K));
+						for (int k = Math.max(from, addr); k < end; k++) {
+							gradient[k] += shard[k];
+							shard[k] = 0;
+						}
+					}
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ReduceTask(gradient, from, mid), new ReduceTask(gradient, mid, to));
+			}
+		}
+	}
+	
+	/**
+	 * 通过alpha的缩放因子计算log(zeta)
+	 * @param lattice 已经调用过computeMs和alpha的工作区
+	 * @return 归一化因子的对数log(zeta)
+	 */
+	public double logZeta(Lattice lattice) {
+		double logZeta = 0;
+		for (int i = 0; i < lattice.length; i++) {
+			logZeta += Math.log(lattice.scale[i]) + lattice.shift[i];
+		}
+		return logZeta;
+	}
+	
+	/**
+	 * 计算前向后向算法中的alpha，结果存入lattice.alpha <br/>
+	 * 每个位置的alpha都除以其所有元素之和lattice.scale[i]，使得该位置alpha之和为1，因此任意长度的句子都不会溢出
+	 * 
+	 * @param lattice 已经调用过computeMs的工作区
+	 */
+	public void alpha(Lattice lattice) {
+		int K = crfParams.K;
+		double[] ms = lattice.ms;
+		double[] alpha = lattice.alpha;
+
+		for (int i = 0; i < lattice.length; i++) {// 依此求取每个位置的alpha
+			int base = i * K * K;// i处的M矩阵
+			double sum = 0;
+			if (i == 0) {
+				for (int k = 0; k < K; k++) {
+					alpha[k] = ms[k];
+					sum += alpha[k];
+				}
+			} else {
+				for (int k = 0; k < K; k++) {
+					double a = 0;
+					for (int preK = 0; preK < K; preK++) {
+						a += alpha[(i - 1) * K + preK] * ms[base + preK * K + k];
+					}
+					alpha[i * K + k] = a;
+					sum += a;
+				}
+			}
+			for (int k = 0; k < K; k++) {
+				alpha[i * K + k] /= sum;
+			}
+			lattice.scale[i] = sum;
+		}
+	}
+	
+	/**
+	 * 计算前向后向算法中的beta，结果存入lattice.beta <br/>
+	 * 使用与alpha相同的缩放因子：位置i的beta除以scale[i+1]，此时alpha[i][k] * beta[i][k]即为位置i标记为k的边缘概率
+	 * @param lattice 已经调用过alpha的工作区
+	 */
+	public void beta(Lattice lattice) {
+		int K = crfParams.K;
+		int length = lattice.length;
+		double[] ms = lattice.ms;
+		double[] beta = lattice.beta;
+		for (int i = length - 1; i >= 0; i--) {
+			if (i == length - 1) {
+				for (int k = 0; k < K; k++)
+					beta[i * K + k] = 1;
+			} else {
+				int base = (i + 1) * K * K;// i+1处的M矩阵
+				for (int k = 0; k < K; k++) {
+					double b = 0;
+					for (int nextK = 0; nextK < K; nextK++) {
+						b += beta[(i + 1) * K + nextK] * ms[base + k * K + nextK];
+					}
+					beta[i * K + k] = b / lattice.scale[i + 1];
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * 将crfParmas以二进制格式写入文件，见ModelFile <br/>
+	 * 使用L1正则项时写入删除了0权值特征的模型，crfParams本身不变
+	 */
+	private void writeModel(){
+		try {
+			CRFParams params = crfParams;
+			if(options.l1 > 0 && !crfParams.isHashing()){
+				params = this.prune();
+				System.out.println("删除0权值特征后：状态特征：" + params.uFeatureAddr.size() + "  转移特征：" + params.bFeatureAddr.size() + "  特征函数：" + params.funWeight.length);
+			}
+			ModelFile.write(params, this.modelFile);
+		}catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * 删除所有特征函数的权值都为0的特征，并压缩funWeight，得到一个新的模型参数；特征哈希模式下桶的位置是固定的，不能删除
+	 * @return 新的模型参数，与crfParams共享labels和templates
+	 */
+	private CRFParams prune(){
+		int K = crfParams.K;
+		double[] w = crfParams.funWeight;
+		int[] uAddr = new int[crfParams.uFeatureAddr.size()];
+		int[] bAddr = new int[crfParams.bFeatureAddr.size()];
+		int index = 0;
+		for(int e = 0; e < uAddr.length; e++)
+			index = newAddr(w, crfParams.uFeatureAddr.value(e), K, uAddr, e, index);
+		for(int e = 0; e < bAddr.length; e++)
+			index = newAddr(w, crfParams.bFeatureAddr.value(e), K * K, bAddr, e, index);
+		
+		CRFParams params = new CRFParams();
+		params.labels = crfParams.labels;
+		params.K = K;
+		params.templates = crfParams.templates;
+		params.col = crfParams.col;
+		params.funWeight = new double[index];
+		for(int e = 0; e < uAddr.length; e++)
+			if(uAddr[e] >= 0)
+				System.arraycopy(w, crfParams.uFeatureAddr.value(e), params.funWeight, uAddr[e], K);
+		for(int e = 0; e < bAddr.length; e++)
+			if(bAddr[e] >= 0)
+				System.arraycopy(w, crfParams.bFeatureAddr.value(e), params.funWeight, bAddr[e], K * K);
+		params.uFeatureAddr = crfParams.uFeatureAddr.retain(uAddr);
+		params.bFeatureAddr = crfParams.bFeatureAddr.retain(bAddr);
+		return params;
+	}
+	
+	/**
+	 * 特征的权值全为0时记为-1，否则分配新的首地址
+	 * @return 下一个可用的首地址
+	 */
+	private static int newAddr(double[] w, int addr, int width, int[] newAddr, int e, int index){
+		newAddr[e] = -1;
+		for(int k = addr; k < addr + width; k++){
+			if(w[k] != 0){
+				newAddr[e] = index;
+				return index + width;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * 根据当前tokens中存储的句子，初始化：crfParams.uFeatureAddr，crfParams.bFeatureAddr，crfParams.funWeight和corpus<br/>
+	 * 只遍历一次语料：每个特征第一次出现时分配一个临时编号并计数，同时记录每个单词的特征编号；
+	 * 精简特征后，把临时编号映射为funWeight中的首地址，并删除被精简的特征，得到corpus <br/>
+	 * 特征哈希模式下不统计特征，也不生成特征字典，直接记录每个单词的特征所在的桶
+	 * 
+	 * @param threshold 特征频次阈值，出现次数小于该阈值的特征被删除
+	 */
+	public void initFeatureInfo(int threshold) {
+		// 首先：uDict和bDict中特征的序号即为其临时编号，uCounts和bCounts存储其出现的次数
+		FeatureDict uDict = new FeatureDict(1 << 16);
+		FeatureDict bDict = new FeatureDict();
+		IntList uCounts = new IntList();
+		IntList bCounts = new IntList();
+		KeyBuilder key = new KeyBuilder();
+		this.seedFeatures(uDict, uCounts, bDict, bCounts, threshold);
+		
+		IntList uFeatures = new IntList();
+		IntList bFeatures = new IntList();
+		IntList uStart = new IntList();
+		IntList bStart = new IntList();
+		IntList labels = new IntList();
+		int[] sentenceStart = new int[tokens.sentenceNum() + 1];
+		int id;
+		boolean hashing = crfParams.isHashing();
+		int labelCol = crfParams.col - 1;
+
+		for (int i = 0; i < tokens.sentenceNum(); i++) {
+			int first = tokens.first(i);
+			int length = tokens.length(i);
+			sentenceStart[i] = labels.size;
+			for (int m = 0; m < length; m++) {
+				uStart.add(uFeatures.size);
+				bStart.add(bFeatures.size);
+				labels.add(tokens.symbol(first + m, labelCol));// 标签列的符号即为标签的索引
+				
+				for (FeatureTemplate template : featureTemplates) {
+					template.feature(tokens, first, length, m, key);
+
+					if (hashing) {// 特征哈希模式：直接记录特征所在的桶
+						if (template.unigram)
+							uFeatures.add(crfParams.featureAddr(key, true));
+						else if (m > 0)
+							bFeatures.add(crfParams.featureAddr(key, false));
+					} else if (template.unigram) {// 状态特征模板
+						if ((id = uDict.add(key, 0)) == uCounts.size)
+							uCounts.add(0);
+						uCounts.data[id]++;
+						uFeatures.add(id);
+					} else {// 转移特征模板
+						if ((id = bDict.add(key, 0)) == bCounts.size)
+							bCounts.add(0);
+						bCounts.data[id]++;
+						if (m > 0)
+							bFeatures.add(id);
+					}
+				}
+			}
+		}
+		sentenceStart[tokens.sentenceNum()] = labels.size;
+		uStart.add(uFeatures.size);
+		bStart.add(bFeatures.size);
+		
+		if (hashing) {
+			uFeatureNum = crfParams.uHashBuckets;
+			bFeatureNum = crfParams.bHashBuckets;
+			crfParams.funWeight = new double[uFeatureNum * crfParams.K + bFeatureNum * crfParams.K * crfParams.K];
+			this.setCorpus(sentenceStart, uStart, bStart, uFeatures, bFeatures, labels);
+			return;
+		}
+
+		int[][] addr = this.selectFeatures(uDict, uCounts, bDict, bCounts, threshold);
+		remapFeatures(uFeatures, uStart, addr[0]);
+		remapFeatures(bFeatures, bStart, addr[1]);
+		this.setCorpus(sentenceStart, uStart, bStart, uFeatures, bFeatures, labels);
+	}
+	
+	/**
+	 * 精简特征，并按临时编号的顺序为保留的特征分配首地址，被删除的特征记为-1；
+	 * 同时初始化crfParams.uFeatureAddr，crfParams.bFeatureAddr和crfParams.funWeight
+	 * @param uDict 状态特征，序号即为临时编号
+	 * @param uCounts 状态特征出现的次数
+	 * @param bDict 转移特征，序号即为临时编号
+	 * @param bCounts 转移特征出现的次数
+	 * @param threshold 特征频次阈值
+	 * @return 状态特征和转移特征的临时编号到首地址的映射
+	 */
+	private int[][] selectFeatures(FeatureDict uDict, IntList uCounts, FeatureDict bDict, IntList bCounts, int threshold) {
+		int index = 0;
+		int[] uAddr = new int[uCounts.size];
+		for (int f = 0; f < uAddr.length; f++) {
+			if (uCounts.data[f] < threshold) {
+				uAddr[f] = -1;
+			} else {
+				uAddr[f] = index;
+				index = index + crfParams.K;
+			}
+		}
+		int[] bAddr = new int[bCounts.size];
+		for (int f = 0; f < bAddr.length; f++) {
+			if (bCounts.data[f] <= threshold) {
+				bAddr[f] = -1;
+			} else {
+				bAddr[f] = index;
+				index = index + crfParams.K * crfParams.K;
+			}
+		}
+		crfParams.funWeight = new double[index];
+		
+		crfParams.uFeatureAddr = uDict.retain(uAddr);
+		crfParams.bFeatureAddr = bDict.retain(bAddr);
+		uFeatureNum = crfParams.uFeatureAddr.size();
+		bFeatureNum = crfParams.bFeatureAddr.size();
+		return new int[][] { uAddr, bAddr };
+	}
+	
+	/**
+	 * 外存训练时抽取特征，初始化：crfParams.labels，crfParams.uFeatureAddr，crfParams.bFeatureAddr，crfParams.funWeight，
+	 * 并把编码后的语料写入spillFile <br/>
+	 * 分批读取训练文件，每批约chunkTokens个单词，内存中只有一批句子和特征字典；
+	 * 第一遍抽取时标签数还不知道，标签和特征都使用临时编号（特征哈希模式下为特征字符串的哈希值），写入临时文件；
+	 * 精简特征后第二遍读取临时文件，把临时编号映射为首地址写入spillFile，两个文件的分块相同
+	 * 
+	 * @param trainFile 训练文件
+	 * @param threshold 特征频次阈值
+	 * @param spillFile 写入的语料文件
+	 */
+	private void initSpillFile(String trainFile, int threshold, String spillFile) throws IOException {
+		FeatureDict labelDict = new FeatureDict();// 标签按第一次出现的顺序编号
+		FeatureDict uDict = new FeatureDict(1 << 16);
+		FeatureDict bDict = new FeatureDict();
+		IntList uCounts = new IntList();
+		IntList bCounts = new IntList();
+		KeyBuilder key = new KeyBuilder();
+		boolean hashing = crfParams.isHashing();
+		String tmpFile = spillFile + ".tmp";
+		int id;
+		this.seedFeatures(uDict, uCounts, bDict, bCounts, threshold);
+		if (initParams != null)
+			seedLabels(labelDict, initParams.labels);
+		
+		tokens = null;
+		CorpusReader in = new CorpusReader(trainFile);
+		CorpusFile.Writer out = new CorpusFile.Writer(tmpFile, options.chunkTokens);
+		try {
+			boolean eof = false;
+			while (!eof) {
+				if (tokens != null)
+					tokens.clear();
+				while (!(eof = this.readSentence(in) == 0) && tokens.tokenNum() < options.chunkTokens) {
+				}
+				if (tokens == null)// 空文件
+					break;
+				int labelCol = crfParams.col - 1;
+				for (int i = 0; i < tokens.sentenceNum(); i++) {
+					int first = tokens.first(i);
+					int length = tokens.length(i);
+					for (int m = 0; m < length; m++) {
+						key.clear();
+						tokens.columns[labelCol].appendKey(tokens.symbol(first + m, labelCol), key);
+						out.addToken(labelDict.add(key, 0));
+						
+						for (FeatureTemplate template : featureTemplates) {
+							template.feature(tokens, first, length, m, key);
+							
+							if (hashing) {// 特征哈希模式：记录哈希值，标签数确定后再计算所在的桶
+								if (template.unigram)
+									out.addUFeature(FeatureDict.hash(key.bytes, 0, key.length));
+								else if (m > 0)
+									out.addBFeature(FeatureDict.hash(key.bytes, 0, key.length));
+							} else if (template.unigram) {// 状态特征模板
+								if ((id = uDict.add(key, 0)) == uCounts.size)
+									uCounts.add(0);
+								uCounts.data[id]++;
+								out.addUFeature(id);
+							} else {// 转移特征模板
+								if ((id = bDict.add(key, 0)) == bCounts.size)
+									bCounts.add(0);
+								bCounts.data[id]++;
+								if (m > 0)
+									out.addBFeature(id);
+							}
+						}
+					}
+					out.endSentence();
+				}
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		tokens = null;
+		
+		crfParams.labels = new ArrayList<String>();
+		for (int i = 0; i < labelDict.size(); i++)
+			crfParams.labels.add(labelDict.key(i));
+		crfParams.K = crfParams.labels.size();
+		int[][] addr = null;
+		if (hashing) {
+			uFeatureNum = crfParams.uHashBuckets;
+			bFeatureNum = crfParams.bHashBuckets;
+			crfParams.funWeight = new double[uFeatureNum * crfParams.K + bFeatureNum * crfParams.K * crfParams.K];
+		} else {
+			addr = this.selectFeatures(uDict, uCounts, bDict, bCounts, threshold);
+		}
+		
+		CorpusFile tmp = new CorpusFile(tmpFile);
+		out = new CorpusFile.Writer(spillFile, options.chunkTokens);
+		FeatureCorpus chunk = new FeatureCorpus();
+		try {
+			for (int c = 0; c < tmp.chunkNum(); c++) {
+				tmp.read(c, chunk);
+				for (int t = 0, s = 1; t < chunk.tokenNum; t++) {
+					out.addToken(chunk.labels[t]);
+					for (int j = chunk.uFeatureStart[t]; j < chunk.uFeatureStart[t + 1]; j++) {
+						int f = chunk.uFeatureArray[j];
+						if (hashing)
+							out.addUFeature(crfParams.hashAddr(f, true));
+						else if (addr[0][f] >= 0)
+							out.addUFeature(addr[0][f]);
+					}
+					for (int j = chunk.bFeatureStart[t]; j < chunk.bFeatureStart[t + 1]; j++) {
+						int f = chunk.bFeatureArray[j];
+						if (hashing)
+							out.addBFeature(crfParams.hashAddr(f, false));
+						else if (addr[1][f] >= 0)
+							out.addBFeature(addr[1][f]);
+					}
+					if (t + 1 == chunk.sentenceStart[s]) {
+						out.endSentence();
+						s++;
+					}
+				}
+			}
+		} finally {
+			tmp.close();
+			out.close();
+		}
+		new File(tmpFile).delete();
+	}
+	
+	/**
+	 * 热启动时把原模型的所有特征依次加入特征字典，计数设为不会被精简的值，因此原模型的特征都被保留 <br/>
+	 * 特征哈希模式下没有特征字典，不需要加入
+	 */
+	private void seedFeatures(FeatureDict uDict, IntList uCounts, FeatureDict bDict, IntList bCounts, int threshold) {
+		if (initParams == null || crfParams.isHashing())
+			return;
+		KeyBuilder key = new KeyBuilder();
+		for (int e = 0; e < initParams.uFeatureAddr.size(); e++) {
+			key.clear();
+			initParams.uFeatureAddr.appendKey(e, key);
+			if (uDict.add(key, 0) == uCounts.size)
+				uCounts.add(threshold + 1);
+		}
+		for (int e = 0; e < initParams.bFeatureAddr.size(); e++) {
+			key.clear();
+			initParams.bFeatureAddr.appendKey(e, key);
+			if (bDict.add(key, 0) == bCounts.size)
+				bCounts.add(threshold + 1);
+		}
+	}
+	
+	/**
+	 * 按顺序把标签加入标签字典，字典中的序号即为标签的索引
+	 */
+	private static void seedLabels(FeatureDict dict, ArrayList<String> labels) {
+		KeyBuilder key = new KeyBuilder();
+		for (String label : labels) {
+			key.clear();
+			key.append(label);
+			dict.add(key, dict.size());
+		}
+	}
+	
+	/**
+	 * 热启动：把原模型的权值复制到funWeight中对应的位置，特征按字符串对应，标签按名称对应；
+	 * 原模型的特征和标签都已经加入字典，新的特征和标签的权值为0 <br/>
+	 * 特征哈希模式下桶的位置不变，只有标签数可能增加
+	 */
+	private void warmStart() {
+		int oldK = initParams.K;
+		int[] label = new int[oldK];
+		for (int l = 0; l < oldK; l++)
+			label[l] = crfParams.labels.indexOf(initParams.labels.get(l));
+		double[] old = initParams.funWeight;
+		int K = crfParams.K;
+		if (crfParams.isHashing()) {
+			for (int f = 0; f < uFeatureNum; f++)
+				copyWeights(old, f * oldK, f * K, label, false);
+			for (int f = 0; f < bFeatureNum; f++)
+				copyWeights(old, uFeatureNum * oldK + f * oldK * oldK, uFeatureNum * K + f * K * K, label, true);
+		} else {
+			KeyBuilder key = new KeyBuilder();
+			for (int e = 0; e < initParams.uFeatureAddr.size(); e++) {
+				key.clear();
+				initParams.uFeatureAddr.appendKey(e, key);
+				copyWeights(old, initParams.uFeatureAddr.value(e), crfParams.uFeatureAddr.get(key), label, false);
+			}
+			for (int e = 0; e < initParams.bFeatureAddr.size(); e++) {
+				key.clear();
+				initParams.bFeatureAddr.appendKey(e, key);
+				copyWeights(old, initParams.bFeatureAddr.value(e), crfParams.bFeatureAddr.get(key), label, true);
+			}
+		}
+		System.out.println("热启动：" + options.initModel + "  标签数：" + oldK + " -> " + K);
+	}
+	
+	/**
+	 * 复制一个特征的权值，标签的索引按label映射
+	 * @param old 原模型的权值
+	 * @param from 特征在原模型中的首地址
+	 * @param to 特征在funWeight中的首地址
+	 * @param label 原模型的标签索引到新标签索引的映射
+	 * @param bigram 是否为转移特征
+	 */
+	private void copyWeights(double[] old, int from, int to, int[] label, boolean bigram) {
+		int oldK = label.length;
+		int K = crfParams.K;
+		double[] w = crfParams.funWeight;
+		if (!bigram) {
+			for (int i = 0; i < oldK; i++)
+				w[to + label[i]] = old[from + i];
+		} else {
+			for (int i = 0; i < oldK; i++)
+				for (int j = 0; j < oldK; j++)
+					w[to + label[i] * K + label[j]] = old[from + i * oldK + j];
+		}
+	}
+	
+	/**
+	 * 把每个单词的特征临时编号原地替换为首地址，删除被精简的特征，并同步修改每个单词的起始地址
+	 * @param features 所有单词的特征临时编号
+	 * @param start 每个单词的特征在features中的起始地址，最后一个元素为features的大小
+	 * @param addr 临时编号到首地址的映射，-1表示删除
+	 */
+	private static void remapFeatures(IntList features, IntList start, int[] addr) {
+		int size = 0;
+		for (int t = 0; t + 1 < start.size; t++) {
+			int from = start.data[t];
+			int to = start.data[t + 1];
+			start.data[t] = size;
+			for (int j = from; j < to; j++) {
+				int a = addr[features.data[j]];
+				if (a >= 0)
+					features.data[size++] = a;
+			}
+		}
+		start.data[start.size - 1] = size;
+		features.size = size;
+	}
+	
+	
+	/**
+	 * 预处理结果的缓存路径：缓存目录下以训练文件、模板文件、热启动模型、threshold和哈希桶数的SHA-256命名，
+	 * 标签和特征字典保存在.model文件中（格式同ModelFile，权值为空），编码后的语料保存在.corpus文件中（格式同CorpusFile）
+	 * @return 不含扩展名的缓存路径
+	 */
+	private String cachePath(String trainFile, String templateFile) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte[] buffer = new byte[1 << 16];
+		String[] files = options.initModel == null ? new String[] { trainFile, templateFile }
+				: new String[] { trainFile, templateFile, options.initModel };// 热启动时字典中包含原模型的特征
+		for (String file : files) {
+			InputStream in = new FileInputStream(file);
+			try {
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					digest.update(buffer, 0, n);
+			} finally {
+				in.close();
+			}
+			digest.update((byte) 0);// 分隔各个文件
+		}
+		ByteBuffer params = ByteBuffer.allocate(16);
+		params.putInt(CorpusFile.VERSION).putInt(options.threshold).putInt(options.uHashBuckets).putInt(options.bHashBuckets);
+		digest.update(params.array());
+
+		StringBuilder name = new StringBuilder();
+		for (byte b : digest.digest())
+			name.append(String.format("%02x", b));
+		File dir = new File(options.cacheDir);
+		dir.mkdirs();
+		return new File(dir, name.toString()).getPath();
+	}
+
+	/**
+	 * 读取预处理结果的缓存，初始化：crfParams.labels，crfParams.uFeatureAddr，crfParams.bFeatureAddr，crfParams.funWeight，
+	 * 语料全部在内存中时同时读入corpus；外存训练时语料文件由调用者打开
+	 * @param cache 缓存路径
+	 * @return 缓存是否存在
+	 */
+	private boolean loadCache(String cache) throws IOException {
+		File header = new File(cache + ".model");
+		File data = new File(cache + ".corpus");
+		if (!header.exists() || !data.exists())
+			return false;
+		CRFParams params = ModelFile.read(header.getPath());
+		crfParams.labels = params.labels;
+		crfParams.K = params.K;
+		crfParams.col = params.col;
+		crfParams.uFeatureAddr = params.uFeatureAddr;
+		crfParams.bFeatureAddr = params.bFeatureAddr;
+		if (crfParams.isHashing()) {
+			uFeatureNum = crfParams.uHashBuckets;
+			bFeatureNum = crfParams.bHashBuckets;
+		} else {
+			uFeatureNum = crfParams.uFeatureAddr.size();
+			bFeatureNum = crfParams.bFeatureAddr.size();
+		}
+		crfParams.funWeight = new double[uFeatureNum * crfParams.K + bFeatureNum * crfParams.K * crfParams.K];
+		if (options.spillFile == null) {
+			CorpusFile in = new CorpusFile(data.getPath());
+			try {
+				corpus = in.readAll();
+			} finally {
+				in.close();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 保存预处理结果的缓存，先写入临时文件再改名，中断的写入不会留下不完整的缓存
+	 * @param cache 缓存路径
+	 * @param corpus 编码后的语料；为null时语料已经写入cache + ".corpus.part"
+	 */
+	private void saveCache(String cache, FeatureCorpus corpus) throws IOException {
+		File data = new File(cache + ".corpus");
+		File dataPart = new File(cache + ".corpus.part");
+		if (corpus != null) {
+			CorpusFile.Writer out = new CorpusFile.Writer(dataPart.getPath(), options.chunkTokens);
+			try {
+				out.write(corpus);
+			} finally {
+				out.close();
+			}
+		}
+		rename(dataPart, data);
+
+		CRFParams params = new CRFParams();
+		params.labels = crfParams.labels;
+		params.K = crfParams.K;
+		params.templates = crfParams.templates;
+		params.col = crfParams.col;
+		params.uHashBuckets = crfParams.uHashBuckets;
+		params.bHashBuckets = crfParams.bHashBuckets;
+		params.uFeatureAddr = crfParams.uFeatureAddr;
+		params.bFeatureAddr = crfParams.bFeatureAddr;
+		params.funWeight = new double[0];// 权值的个数由特征数计算
+		File headerPart = new File(cache + ".model.part");
+		ModelFile.write(params, headerPart.getPath());
+		rename(headerPart, new File(cache + ".model"));
+	}
+
+	private static void rename(File from, File to) throws IOException {
+		to.delete();
+		if (!from.renameTo(to))
+			throw new IOException("无法写入缓存：" + to);
+	}
+	
+	/**
+	 * 读取所有训练句子到tokens中，并初始化标签列表 <br/>
+	 * 标签按第一次出现的顺序编号，即标签列符号表中的顺序，因此标签列的符号就是标签的索引
+	 * @param trainFile
+	 */
+	public void initSentencesAndLabels(String trainFile){
+		tokens = null;
+		crfParams.labels = new ArrayList<String>();
+		if(initParams != null){// 热启动时原模型的标签在前
+			tokens = new TokenCorpus(crfParams.col);
+			seedLabels(tokens.columns[crfParams.col - 1], initParams.labels);
+		}
+		try {
+			CorpusReader in = new CorpusReader(trainFile);
+			while(this.readSentence(in) > 0){
 			}
 			in.close();
 			
@@ -426,7 +2187,9 @@ public class CRFTrainer extends AbstractCRF {
 			e.printStackTrace();
 		}
 
-		//return sentences;
+		FeatureDict labelColumn = tokens.columns[crfParams.col - 1];
+		for (int i = 0; i < labelColumn.size(); i++)
+			crfParams.labels.add(labelColumn.key(i));
 	}
 	
 	
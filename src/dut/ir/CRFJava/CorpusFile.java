@@ -0,0 +1,309 @@
+package dut.ir.CRFJava;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * FileName： CorpusFile.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：外存中编码后的特征语料，用于语料无法全部放入内存时的训练 <br/>
+ *     语料按句子划分为若干块，每块都是一个独立的FeatureCorpus，其中的偏移都从0开始；训练时每次只把一块读入内存 <br/>
+ *     文件格式：MAGIC、VERSION，之后为各块，每块依次为：句子数、单词数、状态特征数、转移特征数、sentenceStart、uFeatureStart、
+ *     bFeatureStart、uFeatureArray、bFeatureArray、labels；文件末尾为索引：块数、每块的起始地址、句子总数、单词总数，最后8个字节为索引的起始地址
+ */
+
+public class CorpusFile implements Closeable {
+	/**
+	 * 文件头，即"CRFC"
+	 */
+	public static final int MAGIC = 0x43524643;
+
+	public static final int VERSION = 1;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	/**
+	 * 每块在文件中的起始地址，最后一个元素为索引的起始地址
+	 */
+	private final long[] chunkStart;
+
+	/**
+	 * 句子总数
+	 */
+	public final int sentenceNum;
+
+	/**
+	 * 单词总数
+	 */
+	public final long tokenNum;
+
+	/**
+	 * 打开语料文件，读取索引
+	 */
+	public CorpusFile(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+		if (head.getInt() != MAGIC || head.getInt() > VERSION) {
+			close();
+			throw new IOException("不是语料文件或版本不支持：" + fileName);
+		}
+		long indexStart = channel.map(FileChannel.MapMode.READ_ONLY, channel.size() - 8, 8).getLong();
+		ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexStart, channel.size() - 8 - indexStart);
+		int chunkNum = index.getInt();
+		chunkStart = new long[chunkNum + 1];
+		for (int c = 0; c < chunkNum; c++)
+			chunkStart[c] = index.getLong();
+		chunkStart[chunkNum] = indexStart;
+		sentenceNum = index.getInt();
+		tokenNum = index.getLong();
+	}
+
+	/**
+	 * 块数
+	 */
+	public int chunkNum() {
+		return chunkStart.length - 1;
+	}
+
+	/**
+	 * 读取第c块
+	 * @param c 块的索引
+	 * @param corpus 重复使用的语料，其数组足够大时不重新分配
+	 * @return corpus
+	 */
+	public FeatureCorpus read(int c, FeatureCorpus corpus) throws IOException {
+		IntBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart[c], chunkStart[c + 1] - chunkStart[c]).asIntBuffer();
+		corpus.sentenceNum = in.get();
+		corpus.tokenNum = in.get();
+		int uSize = in.get();
+		int bSize = in.get();
+		corpus.sentenceStart = read(in, corpus.sentenceStart, corpus.sentenceNum + 1);
+		corpus.uFeatureStart = read(in, corpus.uFeatureStart, corpus.tokenNum + 1);
+		corpus.bFeatureStart = read(in, corpus.bFeatureStart, corpus.tokenNum + 1);
+		corpus.uFeatureArray = read(in, corpus.uFeatureArray, uSize);
+		corpus.bFeatureArray = read(in, corpus.bFeatureArray, bSize);
+		corpus.labels = read(in, corpus.labels, corpus.tokenNum);
+		return corpus;
+	}
+
+	/**
+	 * 把所有块读入一个FeatureCorpus，各块的偏移依次累加
+	 * @return 包含所有句子的语料
+	 */
+	public FeatureCorpus readAll() throws IOException {
+		int sentences = 0, tokens = 0, uSize = 0, bSize = 0;
+		for (int c = 0; c < chunkNum(); c++) {
+			IntBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart[c], 16).asIntBuffer();
+			sentences += head.get();
+			tokens += head.get();
+			uSize += head.get();
+			bSize += head.get();
+		}
+		FeatureCorpus all = new FeatureCorpus();
+		all.sentenceStart = new int[sentences + 1];
+		all.uFeatureStart = new int[tokens + 1];
+		all.bFeatureStart = new int[tokens + 1];
+		all.uFeatureArray = new int[uSize];
+		all.bFeatureArray = new int[bSize];
+		all.labels = new int[tokens];
+
+		FeatureCorpus chunk = new FeatureCorpus();
+		int uBase = 0, bBase = 0;
+		for (int c = 0; c < chunkNum(); c++) {
+			read(c, chunk);
+			int s = all.sentenceNum, t = all.tokenNum;
+			for (int i = 0; i < chunk.sentenceNum; i++)
+				all.sentenceStart[s + i] = t + chunk.sentenceStart[i];
+			for (int i = 0; i < chunk.tokenNum; i++) {
+				all.uFeatureStart[t + i] = uBase + chunk.uFeatureStart[i];
+				all.bFeatureStart[t + i] = bBase + chunk.bFeatureStart[i];
+			}
+			int u = chunk.uFeatureStart[chunk.tokenNum], b = chunk.bFeatureStart[chunk.tokenNum];
+			System.arraycopy(chunk.uFeatureArray, 0, all.uFeatureArray, uBase, u);
+			System.arraycopy(chunk.bFeatureArray, 0, all.bFeatureArray, bBase, b);
+			System.arraycopy(chunk.labels, 0, all.labels, t, chunk.tokenNum);
+			all.sentenceNum += chunk.sentenceNum;
+			all.tokenNum += chunk.tokenNum;
+			uBase += u;
+			bBase += b;
+		}
+		all.sentenceStart[sentences] = tokens;
+		all.uFeatureStart[tokens] = uSize;
+		all.bFeatureStart[tokens] = bSize;
+		return all;
+	}
+
+	private static int[] read(IntBuffer in, int[] a, int n) {
+		if (a == null || a.length < n)
+			a = new int[Math.max(n, a == null ? 0 : a.length + (a.length >> 1))];
+		in.get(a, 0, n);
+		return a;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+		file.close();
+	}
+
+	/**
+	 * 顺序写入语料文件：依次加入每个句子，单词数达到chunkTokens时写入一块
+	 */
+	public static class Writer implements Closeable {
+		private final DataOutputStream out;
+
+		/**
+		 * 每块的单词数
+		 */
+		private final int chunkTokens;
+
+		/**
+		 * 已写入的字节数
+		 */
+		private long position;
+
+		private final LongList chunkStart = new LongList();
+
+		private int sentenceNum;
+
+		private long tokenNum;
+
+		/**
+		 * 当前块，偏移从0开始
+		 */
+		private final IntList sentenceStart = new IntList();
+		private final IntList uStart = new IntList();
+		private final IntList bStart = new IntList();
+		private final IntList uFeatures = new IntList();
+		private final IntList bFeatures = new IntList();
+		private final IntList labels = new IntList();
+
+		public Writer(String fileName, int chunkTokens) throws IOException {
+			this.chunkTokens = chunkTokens;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			position = 8;
+			sentenceStart.add(0);
+		}
+
+		/**
+		 * 开始一个新的单词，之后加入的特征都属于该单词
+		 * @param label 标签的索引
+		 */
+		public void addToken(int label) {
+			uStart.add(uFeatures.size);
+			bStart.add(bFeatures.size);
+			labels.add(label);
+		}
+
+		public void addUFeature(int addr) {
+			uFeatures.add(addr);
+		}
+
+		public void addBFeature(int addr) {
+			bFeatures.add(addr);
+		}
+
+		/**
+		 * 依次加入corpus中的所有句子
+		 */
+		public void write(FeatureCorpus corpus) throws IOException {
+			for (int s = 0; s < corpus.sentenceNum; s++) {
+				for (int t = corpus.sentenceStart[s]; t < corpus.sentenceStart[s + 1]; t++) {
+					addToken(corpus.labels[t]);
+					for (int j = corpus.uFeatureStart[t]; j < corpus.uFeatureStart[t + 1]; j++)
+						addUFeature(corpus.uFeatureArray[j]);
+					for (int j = corpus.bFeatureStart[t]; j < corpus.bFeatureStart[t + 1]; j++)
+						addBFeature(corpus.bFeatureArray[j]);
+				}
+				endSentence();
+			}
+		}
+
+		/**
+		 * 结束当前句子，单词数达到chunkTokens时写入当前块
+		 */
+		public void endSentence() throws IOException {
+			if (labels.size == sentenceStart.get(sentenceStart.size - 1))
+				return;
+			sentenceStart.add(labels.size);
+			sentenceNum++;
+			if (labels.size >= chunkTokens)
+				flush();
+		}
+
+		private void flush() throws IOException {
+			int tokens = labels.size;
+			if (tokens == 0)
+				return;
+			uStart.add(uFeatures.size);
+			bStart.add(bFeatures.size);
+			chunkStart.add(position);
+			out.writeInt(sentenceStart.size - 1);
+			out.writeInt(tokens);
+			out.writeInt(uFeatures.size);
+			out.writeInt(bFeatures.size);
+			write(sentenceStart);
+			write(uStart);
+			write(bStart);
+			write(uFeatures);
+			write(bFeatures);
+			write(labels);
+			position += 16 + 4L * (sentenceStart.size + uStart.size + bStart.size + uFeatures.size + bFeatures.size + labels.size);
+			tokenNum += tokens;
+
+			sentenceStart.clear();
+			sentenceStart.add(0);
+			uStart.clear();
+			bStart.clear();
+			uFeatures.clear();
+			bFeatures.clear();
+			labels.clear();
+		}
+
+		private void write(IntList list) throws IOException {
+			for (int i = 0; i < list.size; i++)
+				out.writeInt(list.data[i]);
+		}
+
+		/**
+		 * 写入最后一块和索引，并关闭文件
+		 */
+		public void close() throws IOException {
+			flush();
+			long indexStart = position;
+			out.writeInt(chunkStart.size);
+			for (int c = 0; c < chunkStart.size; c++)
+				out.writeLong(chunkStart.data[c]);
+			out.writeInt(sentenceNum);
+			out.writeLong(tokenNum);
+			out.writeLong(indexStart);
+			out.close();
+		}
+	}
+
+	/**
+	 * 可变长度的long数组，只用于记录块的起始地址
+	 */
+	private static class LongList {
+		long[] data = new long[16];
+		int size;
+
+		void add(long value) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package dut.ir.CRFJava;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * FileName： CorpusReader.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：基于内存映射的语料读取器，文件格式与CRF++相同，必须为UTF-8编码 <br/>
+ *     文件被分段映射到内存中，直接在映射的字节上查找句子边界（空行）和列的分隔（空白字符），每一列的字节直接加入TokenCorpus的符号表， <br/>
+ *     读取过程中不解码为String，也不为每一行生成对象；最近读取的句子在文件中的字节范围为[sentenceStart, sentenceEnd)
+ */
+
+public class CorpusReader implements Closeable {
+	/**
+	 * 每次映射的字节数，一行的长度超过该值时加倍
+	 */
+	private static final int WINDOW = 1 << 26;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	/**
+	 * 文件的字节数
+	 */
+	private final long fileSize;
+
+	/**
+	 * 当前映射的文件段
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * 当前映射的文件段在文件中的起始地址
+	 */
+	private long bufferStart;
+
+	/**
+	 * 当前映射的文件段的字节数
+	 */
+	private int bufferSize;
+
+	/**
+	 * 下一个要读取的字节在文件中的地址
+	 */
+	private long position;
+
+	/**
+	 * 最近读取的句子在文件中的起始地址
+	 */
+	public long sentenceStart;
+
+	/**
+	 * 最近读取的句子在文件中的结束地址，不包含句子后的空行
+	 */
+	public long sentenceEnd;
+
+	/**
+	 * 当前行在映射段中的起始地址和结束地址，不包含换行符
+	 */
+	private int lineFrom, lineTo;
+
+	public CorpusReader(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		fileSize = channel.size();
+		map(0, WINDOW);
+	}
+
+	private void map(long start, int window) throws IOException {
+		bufferStart = start;
+		bufferSize = (int) Math.min(window, fileSize - start);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, bufferSize);
+	}
+
+	/**
+	 * 定位position处的一行，结果保存在lineFrom和lineTo中，并把position移动到下一行
+	 * @return 文件已经结束时返回false
+	 */
+	private boolean nextLine() throws IOException {
+		if (position >= fileSize)
+			return false;
+		int window = WINDOW;
+		while (true) {
+			if (position < bufferStart || position > bufferStart + bufferSize)
+				map(position, window);
+			int from = (int) (position - bufferStart);
+			int to = from;
+			while (to < bufferSize && buffer.get(to) != '\n')
+				to++;
+			if (to < bufferSize || bufferStart + bufferSize == fileSize) {
+				lineFrom = from;
+				lineTo = to;
+				position = bufferStart + Math.min(to + 1, bufferSize);
+				if (lineTo > lineFrom && buffer.get(lineTo - 1) == '\r')// 兼容\r\n
+					lineTo--;
+				return true;
+			}
+			// 当前行跨越了映射段的末尾，从行首重新映射，行过长时扩大映射段
+			if (from == 0)
+				window = (int) Math.min((long) window * 2, Integer.MAX_VALUE);
+			map(position, window);
+		}
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+
+	/**
+	 * 当前行的末尾地址，与split相同，忽略末尾的空列
+	 */
+	private int trimEnd() {
+		int end = lineTo;
+		while (end > lineFrom && isSpace(buffer.get(end - 1)))
+			end--;
+		return end;
+	}
+
+	/**
+	 * 当前行的列数
+	 */
+	private int columns(int end) {
+		int n = end == lineFrom ? 0 : 1;
+		for (int i = lineFrom; i < end; i++) {
+			if (isSpace(buffer.get(i)))
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * 跳过句子之前的空行
+	 * @return 文件已经结束时返回false
+	 */
+	private boolean skipBlankLines() throws IOException {
+		long start;
+		do {
+			start = position;
+			if (!nextLine())
+				return false;
+		} while (lineFrom == lineTo);
+		sentenceStart = start;
+		return true;
+	}
+
+	/**
+	 * 读取下一个非空行的列数，但不移动读取位置，用于在读取第一个句子之前确定列数
+	 * @return 列数，文件中没有句子时返回0
+	 */
+	public int peekColumns() throws IOException {
+		long mark = position;
+		int col = skipBlankLines() ? columns(trimEnd()) : 0;
+		position = mark;
+		return col;
+	}
+
+	/**
+	 * 读取一个句子，把所有单词加入tokens
+	 * @param tokens 整数编码的语料，列数必须与文件相同
+	 * @return 句子的长度，文件结束时返回0
+	 * @throws IOException 文件读取错误或列数不一致
+	 */
+	public int readSentence(TokenCorpus tokens) throws IOException {
+		if (!skipBlankLines())
+			return 0;
+		KeyBuilder key = tokens.key;
+		do {
+			int end = trimEnd();
+			int n = columns(end);
+			if (n != tokens.col) {
+				System.err.println("文件格式不正确：列数不一致");
+				System.err.println(line());
+				throw new IOException("文件格式不正确：列数不一致");
+			}
+			int from = lineFrom;
+			for (int c = 0; c < n; c++) {
+				int to = from;
+				while (to < end && !isSpace(buffer.get(to)))
+					to++;
+				key.clear();
+				key.append(buffer, from, to);
+				tokens.addSymbol(c, key);
+				from = to + 1;
+			}
+			sentenceEnd = position;
+		} while (nextLine() && lineFrom != lineTo);
+		return tokens.endSentence();
+	}
+
+	/**
+	 * 当前行的字符串，只用于输出错误信息
+	 */
+	private String line() {
+		byte[] b = new byte[lineTo - lineFrom];
+		for (int i = 0; i < b.length; i++)
+			b[i] = buffer.get(lineFrom + i);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	public void close() throws IOException {
+		buffer = null;
+		channel.close();
+		file.close();
+	}
+}
@@ -0,0 +1,108 @@
+package dut.ir.CRFJava;
+
+/**
+ * FileName： FeatureCorpus.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：编码后的特征语料，以压缩稀疏行（CSR）的方式存储所有句子所有单词的特征和标签 <br/>
+ *     所有单词按句子顺序统一编号，第sid个句子的单词为[sentenceStart[sid], sentenceStart[sid+1])， <br/>
+ *     第t个单词的状态特征为uFeatureArray[uFeatureStart[t], uFeatureStart[t+1])，没有特征时为空区间，转移特征同理
+ */
+
+public class FeatureCorpus {
+	/**
+	 * 句子数
+	 */
+	public int sentenceNum;
+
+	/**
+	 * 所有句子的单词总数
+	 */
+	public int tokenNum;
+
+	/**
+	 * 每个句子第一个单词的编号，长度为sentenceNum + 1，最后一个元素为tokenNum
+	 */
+	public int[] sentenceStart;
+
+	/**
+	 * 每个单词的状态特征在uFeatureArray中的起始地址，长度为tokenNum + 1，最后一个元素为uFeatureArray的大小
+	 */
+	public int[] uFeatureStart;
+
+	/**
+	 * 每个单词的转移特征在bFeatureArray中的起始地址，长度为tokenNum + 1，最后一个元素为bFeatureArray的大小
+	 */
+	public int[] bFeatureStart;
+
+	/**
+	 * 把所有句子所有单词的状态特征依次存入该数组，状态特征使用其在CRFParams.funWeight数组中的首地址表示
+	 */
+	public int[] uFeatureArray;
+
+	/**
+	 * 把所有句子所有单词的转移特征依次存入该数组，转移特征使用其在CRFParams.funWeight数组中的首地址表示
+	 */
+	public int[] bFeatureArray;
+
+	/**
+	 * 每个单词的标签索引
+	 */
+	public int[] labels;
+
+	public FeatureCorpus() {
+
+	}
+
+	/**
+	 * @param sid 句子索引
+	 * @return 句子的长度
+	 */
+	public int length(int sid) {
+		return sentenceStart[sid + 1] - sentenceStart[sid];
+	}
+
+	/**
+	 * 复制部分句子，得到一个新的语料，特征首地址和标签不变
+	 * @param sids 句子索引，按该顺序复制
+	 * @return 新的语料
+	 */
+	public FeatureCorpus subset(int[] sids) {
+		int tokens = 0, uSize = 0, bSize = 0;
+		for (int sid : sids) {
+			int first = sentenceStart[sid], end = sentenceStart[sid + 1];
+			tokens += end - first;
+			uSize += uFeatureStart[end] - uFeatureStart[first];
+			bSize += bFeatureStart[end] - bFeatureStart[first];
+		}
+		FeatureCorpus sub = new FeatureCorpus();
+		sub.sentenceNum = sids.length;
+		sub.tokenNum = tokens;
+		sub.sentenceStart = new int[sids.length + 1];
+		sub.uFeatureStart = new int[tokens + 1];
+		sub.bFeatureStart = new int[tokens + 1];
+		sub.uFeatureArray = new int[uSize];
+		sub.bFeatureArray = new int[bSize];
+		sub.labels = new int[tokens];
+
+		int t = 0, u = 0, b = 0;
+		for (int i = 0; i < sids.length; i++) {
+			int first = sentenceStart[sids[i]], end = sentenceStart[sids[i] + 1];
+			sub.sentenceStart[i] = t;
+			for (int j = first; j < end; j++, t++) {
+				sub.uFeatureStart[t] = u;
+				sub.bFeatureStart[t] = b;
+				sub.labels[t] = labels[j];
+				int un = uFeatureStart[j + 1] - uFeatureStart[j];
+				int bn = bFeatureStart[j + 1] - bFeatureStart[j];
+				System.arraycopy(uFeatureArray, uFeatureStart[j], sub.uFeatureArray, u, un);
+				System.arraycopy(bFeatureArray, bFeatureStart[j], sub.bFeatureArray, b, bn);
+				u += un;
+				b += bn;
+			}
+		}
+		sub.sentenceStart[sids.length] = t;
+		sub.uFeatureStart[t] = u;
+		sub.bFeatureStart[t] = b;
+		return sub;
+	}
+}
@@ -0,0 +1,372 @@
+package dut.ir.CRFJava;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * FileName： FeatureDict.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：特征字典，代替HashMap&lt;String, Integer&gt;，特征字符串到int值的映射 <br/>
+ *     所有特征的UTF-8字节依次存放在一个字节数组arena中，第e个特征为arena[keyStart[e], keyStart[e+1])，其值为values[e]； <br/>
+ *     使用线性探测的开放地址哈希表table查找，table中存储特征序号加1，0表示空位；查找时直接比较字节，不需要生成String
+ */
+
+public class FeatureDict implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 所有特征的UTF-8字节
+	 */
+	private byte[] arena;
+
+	/**
+	 * 每个特征在arena中的起始地址，只有前size + 1个有效
+	 */
+	private int[] keyStart;
+
+	/**
+	 * 每个特征对应的值
+	 */
+	private int[] values;
+
+	/**
+	 * 每个特征的哈希值，扩容时不需要重新计算
+	 */
+	private int[] hashes;
+
+	/**
+	 * 开放地址哈希表，大小为2的幂
+	 */
+	private int[] table;
+
+	/**
+	 * 特征的个数
+	 */
+	private int size;
+
+	public FeatureDict() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity 预计的特征个数
+	 */
+	public FeatureDict(int capacity) {
+		capacity = Math.max(capacity, 4);
+		arena = new byte[capacity * 16];
+		keyStart = new int[capacity + 1];
+		values = new int[capacity];
+		hashes = new int[capacity];
+		table = new int[tableSize(capacity)];
+	}
+
+	private static int tableSize(int capacity) {
+		int n = 8;
+		while (n < capacity * 2)
+			n <<= 1;
+		return n;
+	}
+
+	/**
+	 * 计算一段字节的哈希值（FNV-1a，再经过murmur3的fmix32混合）
+	 */
+	public static int hash(byte[] key, int off, int len) {
+		int h = 0x811C9DC5;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = (h ^ key[i]) * 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * 特征的个数
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 查找特征的序号
+	 * @param key 特征字节所在的数组
+	 * @param off 起始地址
+	 * @param len 字节数
+	 * @return 特征的序号，不存在时返回-1
+	 */
+	public int find(byte[] key, int off, int len) {
+		return find(key, off, len, hash(key, off, len));
+	}
+
+	private int find(byte[] key, int off, int len, int h) {
+		int mask = table.length - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int e = table[slot] - 1;
+			if (e < 0)
+				return -1;
+			if (hashes[e] == h && equals(e, key, off, len))
+				return e;
+		}
+	}
+
+	private boolean equals(int e, byte[] key, int off, int len) {
+		int start = keyStart[e];
+		if (keyStart[e + 1] - start != len)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (arena[start + i] != key[off + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 查找特征对应的值
+	 * @return 特征对应的值，不存在时返回-1
+	 */
+	public int get(byte[] key, int off, int len) {
+		int e = find(key, off, len);
+		return e < 0 ? -1 : values[e];
+	}
+
+	/**
+	 * 查找特征对应的值
+	 * @return 特征对应的值，不存在时返回-1
+	 */
+	public int get(KeyBuilder key) {
+		return get(key.bytes, 0, key.length);
+	}
+
+	/**
+	 * 查找特征对应的值，会生成临时的字节数组，不要在频繁调用的地方使用
+	 * @return 特征对应的值，不存在时返回-1
+	 */
+	public int get(String key) {
+		byte[] b = key.getBytes(StandardCharsets.UTF_8);
+		return get(b, 0, b.length);
+	}
+
+	public boolean containsKey(String key) {
+		return get(key) >= 0;
+	}
+
+	/**
+	 * 添加特征，如果特征已经存在，则不修改其值
+	 * @param value 新特征的值
+	 * @return 特征的序号，新特征的序号为添加前的size
+	 */
+	public int add(byte[] key, int off, int len, int value) {
+		int h = hash(key, off, len);
+		int e = find(key, off, len, h);
+		if (e >= 0)
+			return e;
+
+		if (size == values.length) {
+			int capacity = size * 2;
+			keyStart = Arrays.copyOf(keyStart, capacity + 1);
+			values = Arrays.copyOf(values, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		int start = keyStart[size];
+		if (start + len > arena.length)
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, start + len));
+		System.arraycopy(key, off, arena, start, len);
+		keyStart[size + 1] = start + len;
+		values[size] = value;
+		hashes[size] = h;
+		e = size++;
+
+		if (size * 2 > table.length)
+			rehash(table.length * 2);
+		else
+			insert(e);
+		return e;
+	}
+
+	/**
+	 * 添加特征，如果特征已经存在，则不修改其值
+	 * @return 特征的序号
+	 */
+	public int add(KeyBuilder key, int value) {
+		return add(key.bytes, 0, key.length, value);
+	}
+
+	/**
+	 * 添加特征，如果特征已经存在，则修改其值
+	 */
+	public void put(String key, int value) {
+		byte[] b = key.getBytes(StandardCharsets.UTF_8);
+		int e = add(b, 0, b.length, value);
+		values[e] = value;
+	}
+
+	private void insert(int e) {
+		int mask = table.length - 1;
+		int slot = hashes[e] & mask;
+		while (table[slot] != 0)
+			slot = (slot + 1) & mask;
+		table[slot] = e + 1;
+	}
+
+	private void rehash(int tableSize) {
+		table = new int[tableSize];
+		for (int e = 0; e < size; e++)
+			insert(e);
+	}
+
+	/**
+	 * @param e 特征序号
+	 * @return 第e个特征的值
+	 */
+	public int value(int e) {
+		return values[e];
+	}
+
+	/**
+	 * 修改第e个特征的值
+	 */
+	public void setValue(int e, int value) {
+		values[e] = value;
+	}
+
+	/**
+	 * @param e 特征序号
+	 * @return 第e个特征的字符串
+	 */
+	public String key(int e) {
+		return new String(arena, keyStart[e], keyStart[e + 1] - keyStart[e], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 把第e个特征的UTF-8字节追加到key中，不生成String
+	 */
+	public void appendKey(int e, KeyBuilder key) {
+		key.append(arena, keyStart[e], keyStart[e + 1] - keyStart[e]);
+	}
+
+	/**
+	 * 删除所有特征，保留已分配的空间
+	 */
+	public void clear() {
+		if (size > 0) {
+			size = 0;
+			Arrays.fill(table, 0);
+		}
+	}
+
+	/**
+	 * 生成一个新字典，只保留newValues中不小于0的特征，其值为newValues中的值，特征的相对顺序不变
+	 * @param newValues 每个特征的新值，-1表示删除
+	 * @return 新的字典
+	 */
+	public FeatureDict retain(int[] newValues) {
+		int count = 0;
+		for (int e = 0; e < size; e++) {
+			if (newValues[e] >= 0)
+				count++;
+		}
+		FeatureDict dict = new FeatureDict(count);
+		for (int e = 0; e < size; e++) {
+			if (newValues[e] >= 0)
+				dict.add(arena, keyStart[e], keyStart[e + 1] - keyStart[e], newValues[e]);
+		}
+		return dict;
+	}
+
+	/**
+	 * 由旧版本模型中的HashMap生成字典
+	 * @param map 特征到首地址的映射
+	 * @return 字典
+	 */
+	public static FeatureDict fromMap(Map<String, Integer> map) {
+		FeatureDict dict = new FeatureDict(map.size());
+		Iterator<Entry<String, Integer>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<String, Integer> entry = it.next();
+			dict.put(entry.getKey(), entry.getValue());
+		}
+		return dict;
+	}
+
+	/**
+	 * 二进制格式的字节数，见write
+	 */
+	public long binarySize() {
+		return 12L + keyStart[size] + 4L * (size + 1) + 8L * size + 4L * table.length;
+	}
+
+	/**
+	 * 以二进制格式写入字典，依次为：size、arena的字节数、哈希表大小、arena、keyStart、values、hashes、table <br/>
+	 * 哈希表一起写入，读取时直接复制，不需要重新计算哈希值
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(keyStart[size]);
+		out.writeInt(table.length);
+		out.write(arena, 0, keyStart[size]);
+		ModelFile.writeInts(out, keyStart, size + 1);
+		ModelFile.writeInts(out, values, size);
+		ModelFile.writeInts(out, hashes, size);
+		ModelFile.writeInts(out, table, table.length);
+	}
+
+	/**
+	 * 从映射的二进制数据中读取字典，格式见write
+	 * @param in 字典数据，读取后位置移动到字典之后
+	 */
+	public static FeatureDict read(ByteBuffer in) {
+		int size = in.getInt();
+		int arenaSize = in.getInt();
+		int tableSize = in.getInt();
+		FeatureDict dict = new FeatureDict(0);
+		if (size == 0) {// 空字典保留默认的空间，保证add时可以扩容
+			in.position(in.position() + arenaSize + 4 * (1 + tableSize));
+			return dict;
+		}
+		dict.size = size;
+		dict.arena = new byte[arenaSize];
+		in.get(dict.arena);
+		dict.keyStart = ModelFile.readInts(in, size + 1);
+		dict.values = ModelFile.readInts(in, size);
+		dict.hashes = ModelFile.readInts(in, size);
+		dict.table = ModelFile.readInts(in, tableSize);
+		return dict;
+	}
+
+	/**
+	 * 只写入有效的部分，不写入哈希表，读取时重建
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.writeInt(size);
+		out.writeObject(Arrays.copyOf(arena, keyStart[size]));
+		out.writeObject(Arrays.copyOf(keyStart, size + 1));
+		out.writeObject(Arrays.copyOf(values, size));
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		size = in.readInt();
+		arena = (byte[]) in.readObject();
+		keyStart = (int[]) in.readObject();
+		values = (int[]) in.readObject();
+		if (values.length == 0) {// 保证add时可以扩容
+			keyStart = new int[5];
+			values = new int[4];
+		}
+		hashes = new int[values.length];
+		for (int e = 0; e < size; e++)
+			hashes[e] = hash(arena, keyStart[e], keyStart[e + 1] - keyStart[e]);
+		rehash(tableSize(values.length));
+	}
+}
@@ -0,0 +1,105 @@
+package dut.ir.CRFJava;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * FileName： FeatureTemplate.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：编译后的特征模板，由CRFParams.templates中的一项生成，可以反复用于抽取每个单词的特征 <br/>
+ *     特征字符串的格式与原来相同：模板key + ":" + 依次拼接的各个位置的值，超出句子范围的位置被跳过 <br/>
+ *     特征不使用（模板编号, 各位置的符号编号）组合成的整数作为key，而是拼接各符号预先编码好的UTF-8字节，再在FeatureDict中按字节查找：
+ *     符号编号由各语料自己的符号表分配，训练、热启动、缓存和标注时互不相同，不能跨语料使用；
+ *     模型文件中的特征字典、特征哈希的桶号和CRFTagger的查找都以特征字符串为key，使用字节即可与原有模型保持兼容。
+ *     每个特征只拼接少量已编码的字节，不再创建String，也不再重复编码
+ */
+
+public class FeatureTemplate {
+	/**
+	 * 模板key，如"U10"
+	 */
+	public final String name;
+
+	/**
+	 * 特征的前缀：name + ":"
+	 */
+	public final String prefix;
+
+	/**
+	 * prefix的UTF-8编码
+	 */
+	private final byte[] prefixBytes;
+
+	/**
+	 * 是否为状态特征模板（以"U"开头），否则为转移特征模板
+	 */
+	public final boolean unigram;
+
+	/**
+	 * 每个%x[row,col]的行偏移
+	 */
+	public final int[] rows;
+
+	/**
+	 * 每个%x[row,col]的列号
+	 */
+	public final int[] cols;
+
+	public FeatureTemplate(String name, Integer[] numbers) {
+		this.name = name;
+		this.prefix = name + ":";
+		this.prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+		this.unigram = prefix.startsWith("U");
+		this.rows = new int[numbers.length / 2];
+		this.cols = new int[numbers.length / 2];
+		for (int k = 0; k < rows.length; k++) {
+			rows[k] = numbers[2 * k];
+			cols[k] = numbers[2 * k + 1];
+		}
+	}
+
+	/**
+	 * 模板是否与位置无关，即不引用任何%x[row,col]，如模板B
+	 * @return 是否与位置无关
+	 */
+	public boolean isStatic() {
+		return rows.length == 0;
+	}
+
+	/**
+	 * 把句子第m个单词处的特征字符串以UTF-8编码写入key，各个位置的值直接取自tokens的符号表
+	 * @param tokens 整数编码的语料
+	 * @param first 句子第一个单词的编号
+	 * @param length 句子长度
+	 * @param m 单词的位置
+	 * @param key 可重复使用的缓冲区，写入前清空
+	 */
+	public void feature(TokenCorpus tokens, int first, int length, int m, KeyBuilder key) {
+		key.clear();
+		key.append(prefixBytes, 0, prefixBytes.length);
+		for (int k = 0; k < rows.length; k++) {
+			int row = rows[k] + m;
+			if (row < 0 || row >= length)
+				continue;
+			tokens.appendSymbol(first + row, cols[k], key);
+		}
+	}
+
+	/**
+	 * 编译所有的模板，顺序与templates的遍历顺序相同
+	 * @param templates 模板字典，见CRFParams.templates
+	 * @return 编译后的模板数组
+	 */
+	public static FeatureTemplate[] compile(HashMap<String, Integer[]> templates) {
+		FeatureTemplate[] result = new FeatureTemplate[templates.size()];
+		Iterator<Entry<String, Integer[]>> it = templates.entrySet().iterator();
+		int i = 0;
+		while (it.hasNext()) {
+			Entry<String, Integer[]> entry = it.next();
+			result[i++] = new FeatureTemplate(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,54 @@
+package dut.ir.CRFJava;
+
+import java.util.Arrays;
+
+/**
+ * FileName： IntList.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：可增长的int数组，代替ArrayList&lt;Integer&gt;，避免装箱 <br/>
+ */
+
+public class IntList {
+	/**
+	 * 存储元素的数组，只有前size个有效
+	 */
+	public int[] data;
+
+	/**
+	 * 元素个数
+	 */
+	public int size;
+
+	public IntList() {
+		this(16);
+	}
+
+	public IntList(int capacity) {
+		data = new int[Math.max(capacity, 1)];
+	}
+
+	public void add(int value) {
+		if (size == data.length)
+			data = Arrays.copyOf(data, data.length * 2);
+		data[size++] = value;
+	}
+
+	public int get(int i) {
+		return data[i];
+	}
+
+	public void set(int i, int value) {
+		data[i] = value;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return 长度为size的新数组
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(data, size);
+	}
+}
@@ -0,0 +1,95 @@
+package dut.ir.CRFJava;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FileName： KeyBuilder.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：可重复使用的UTF-8字节缓冲区，用于拼接特征字符串，拼接过程中不生成String对象 <br/>
+ */
+
+public class KeyBuilder {
+	/**
+	 * 存储字节的数组，只有前length个有效
+	 */
+	public byte[] bytes = new byte[64];
+
+	/**
+	 * 有效字节数
+	 */
+	public int length;
+
+	public void clear() {
+		length = 0;
+	}
+
+	private void ensure(int extra) {
+		if (length + extra > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+	}
+
+	/**
+	 * 追加一段字节
+	 */
+	public void append(byte[] b, int off, int len) {
+		ensure(len);
+		System.arraycopy(b, off, bytes, length, len);
+		length += len;
+	}
+
+	/**
+	 * 追加buffer[from, to)中的字节，不改变buffer的位置
+	 */
+	public void append(ByteBuffer buffer, int from, int to) {
+		ensure(to - from);
+		byte[] b = bytes;
+		int p = length;
+		for (int i = from; i < to; i++)
+			b[p++] = buffer.get(i);
+		length = p;
+	}
+
+	/**
+	 * 以UTF-8编码追加字符串，不成对的代理字符编码为'?'，与String.getBytes("UTF-8")相同
+	 */
+	public void append(String s) {
+		append(s, 0, s.length());
+	}
+
+	/**
+	 * 以UTF-8编码追加字符串s[from, to)
+	 */
+	public void append(CharSequence s, int from, int to) {
+		ensure((to - from) * 3);
+		byte[] b = bytes;
+		int p = length;
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				b[p++] = (byte) c;
+			} else if (c < 0x800) {
+				b[p++] = (byte) (0xC0 | (c >> 6));
+				b[p++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				char d;
+				if (Character.isHighSurrogate(c) && i + 1 < to
+						&& Character.isLowSurrogate(d = s.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, d);
+					i++;
+					b[p++] = (byte) (0xF0 | (cp >> 18));
+					b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					b[p++] = (byte) (0x80 | (cp & 0x3F));
+				} else {
+					b[p++] = (byte) '?';
+				}
+			} else {
+				b[p++] = (byte) (0xE0 | (c >> 12));
+				b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[p++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		length = p;
+	}
+}
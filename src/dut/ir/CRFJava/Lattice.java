@@ -0,0 +1,104 @@
+package dut.ir.CRFJava;
+
+/**
+ * FileName： Lattice.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：计算一个句子的M矩阵、前向后向和viterbi时使用的工作区，所有的缓冲区都是一维数组，按位置优先存储 <br/>
+ *     工作区只增不减，可以在多个句子之间重复使用，稳定后不再分配内存；每个线程使用自己的工作区
+ */
+
+public class Lattice {
+	/**
+	 * 标签的数量
+	 */
+	public final int K;
+
+	/**
+	 * 当前句子的长度
+	 */
+	public int length;
+
+	/**
+	 * 缓冲区能容纳的最大句子长度
+	 */
+	public int capacity;
+
+	/**
+	 * 每个位置的M矩阵，位置i处M[m][n]存储在ms[(i * K + m) * K + n]，位置0只使用m = 0的一行
+	 */
+	public double[] ms;
+
+	/**
+	 * 缩放后的alpha，位置i处标签k的值存储在alpha[i * K + k]
+	 */
+	public double[] alpha;
+
+	/**
+	 * 缩放后的beta，存储方式同alpha
+	 */
+	public double[] beta;
+
+	/**
+	 * 每个位置alpha的缩放因子
+	 */
+	public double[] scale;
+
+	/**
+	 * 每个位置计算M矩阵时减去的最大特征加权和
+	 */
+	public double[] shift;
+
+	/**
+	 * viterbi中到达位置i标签k的最优路径的特征加权和，存储方式同alpha
+	 */
+	public double[] delta;
+
+	/**
+	 * viterbi中位置i标签k的最优前驱标签，存储方式同alpha
+	 */
+	public int[] backPtr;
+
+	/**
+	 * viterbi得到的标签序列，只有前length个元素有效
+	 */
+	public int[] path;
+
+	/**
+	 * K * K的临时缓冲区，用于累加转移特征函数的期望
+	 */
+	public double[] edge;
+
+	/**
+	 * K * K的临时缓冲区，viterbi中存储当前位置的转移分数
+	 */
+	public double[] trans;
+
+	public Lattice(int K) {
+		this.K = K;
+		this.edge = new double[K * K];
+		this.trans = new double[K * K];
+		this.ensureCapacity(16);
+	}
+
+	/**
+	 * 准备计算一个长度为length的句子，必要时扩大缓冲区
+	 * @param length 句子长度
+	 */
+	public void reset(int length) {
+		if (length > capacity)
+			this.ensureCapacity(Math.max(length, capacity * 2));
+		this.length = length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		this.capacity = capacity;
+		ms = new double[capacity * K * K];
+		alpha = new double[capacity * K];
+		beta = new double[capacity * K];
+		scale = new double[capacity];
+		shift = new double[capacity];
+		delta = new double[capacity * K];
+		backPtr = new int[capacity * K];
+		path = new int[capacity];
+	}
+}
@@ -0,0 +1,20 @@
+package dut.ir.CRFJava;
+
+/**
+ * FileName： ModelConverter.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：把旧版本的序列化模型文件转换为二进制模型文件，用法：ModelConverter 旧模型文件 新模型文件 <br/>
+ */
+
+public class ModelConverter {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("用法：ModelConverter 旧模型文件 新模型文件");
+			return;
+		}
+		CRFParams params = ModelFile.load(args[0]);
+		ModelFile.write(params, args[1]);
+		System.out.println("标签：" + params.K + "，模板：" + params.templates.size() + "，特征函数：" + params.funWeight.length);
+	}
+}
@@ -0,0 +1,262 @@
+package dut.ir.CRFJava;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * FileName： ModelFile.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：二进制模型文件的读写，代替CRFParams的Java序列化 <br/>
+ *     文件格式：MAGIC、VERSION、段数，之后依次为各段，每段以段类型(int)和段的字节数(long)开头，读取时跳过不认识的段； <br/>
+ *     段包括：参数(K、col、哈希桶数)、标签、模板、状态特征字典、转移特征字典、权值，字典中包含哈希表； <br/>
+ *     读取时按段映射文件，用批量复制得到各个数组，不生成中间对象，也不需要重建哈希表； <br/>
+ *     load方法根据MAGIC判断文件格式，旧版本的序列化模型仍然可以读取
+ */
+
+public class ModelFile {
+	/**
+	 * 文件头，即"CRFM"
+	 */
+	public static final int MAGIC = 0x4352464D;
+
+	/**
+	 * 当前的格式版本，读取时拒绝更高的版本
+	 */
+	public static final int VERSION = 1;
+
+	private static final int SECTION_PARAMS = 1;
+	private static final int SECTION_LABELS = 2;
+	private static final int SECTION_TEMPLATES = 3;
+	private static final int SECTION_U_DICT = 4;
+	private static final int SECTION_B_DICT = 5;
+	private static final int SECTION_WEIGHTS = 6;
+
+	/**
+	 * 一次映射的最大字节数，权值段超过该值时分块映射
+	 */
+	private static final int MAX_MAP = 1 << 30;
+
+	/**
+	 * 读取模型文件，二进制格式和旧版本的序列化格式都可以读取
+	 * @param modelFile 模型文件
+	 * @return 模型参数
+	 */
+	public static CRFParams load(String modelFile) throws IOException, ClassNotFoundException {
+		if (isBinary(modelFile))
+			return read(modelFile);
+		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(modelFile));
+		try {
+			return (CRFParams) ois.readObject();
+		} finally {
+			ois.close();
+		}
+	}
+
+	/**
+	 * 根据文件头判断是否为二进制模型文件
+	 */
+	public static boolean isBinary(String modelFile) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(modelFile));
+		try {
+			return in.available() >= 4 && in.readInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 以二进制格式写入模型
+	 * @param params 模型参数
+	 * @param modelFile 模型文件
+	 */
+	public static void write(CRFParams params, String modelFile) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(modelFile), 1 << 16));
+		try {
+			boolean dict = params.uFeatureAddr != null;
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dict ? 6 : 4);
+
+			section(out, SECTION_PARAMS, 16);
+			out.writeInt(params.K);
+			out.writeInt(params.col);
+			out.writeInt(params.uHashBuckets);
+			out.writeInt(params.bHashBuckets);
+
+			byte[][] labels = new byte[params.labels.size()][];
+			long size = 4;
+			for (int i = 0; i < labels.length; i++) {
+				labels[i] = params.labels.get(i).getBytes(StandardCharsets.UTF_8);
+				size += 4 + labels[i].length;
+			}
+			section(out, SECTION_LABELS, size);
+			out.writeInt(labels.length);
+			for (int i = 0; i < labels.length; i++)
+				writeBytes(out, labels[i]);
+
+			ArrayList<byte[]> names = new ArrayList<byte[]>();
+			ArrayList<Integer[]> numbers = new ArrayList<Integer[]>();
+			size = 4;
+			Iterator<Entry<String, Integer[]>> it = params.templates.entrySet().iterator();
+			while (it.hasNext()) {
+				Entry<String, Integer[]> entry = it.next();
+				names.add(entry.getKey().getBytes(StandardCharsets.UTF_8));
+				numbers.add(entry.getValue());
+				size += 8 + names.get(names.size() - 1).length + 4 * entry.getValue().length;
+			}
+			section(out, SECTION_TEMPLATES, size);
+			out.writeInt(names.size());
+			for (int i = 0; i < names.size(); i++) {
+				writeBytes(out, names.get(i));
+				out.writeInt(numbers.get(i).length);
+				for (Integer number : numbers.get(i))
+					out.writeInt(number);
+			}
+
+			if (dict) {
+				section(out, SECTION_U_DICT, params.uFeatureAddr.binarySize());
+				params.uFeatureAddr.write(out);
+				section(out, SECTION_B_DICT, params.bFeatureAddr.binarySize());
+				params.bFeatureAddr.write(out);
+			}
+
+			double[] weight = params.funWeight;
+			section(out, SECTION_WEIGHTS, 8L * weight.length);
+			for (int i = 0; i < weight.length; i++)
+				out.writeDouble(weight[i]);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * 读取二进制格式的模型
+	 * @param modelFile 模型文件
+	 * @return 模型参数
+	 */
+	public static CRFParams read(String modelFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(modelFile, "r");
+		FileChannel channel = file.getChannel();
+		try {
+			ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, 12);
+			if (head.getInt() != MAGIC)
+				throw new IOException("不是二进制模型文件：" + modelFile);
+			int version = head.getInt();
+			if (version > VERSION)
+				throw new IOException("不支持的模型版本：" + version);
+			int sections = head.getInt();
+
+			CRFParams params = new CRFParams();
+			long offset = 12;
+			for (int s = 0; s < sections; s++) {
+				head = channel.map(FileChannel.MapMode.READ_ONLY, offset, 12);
+				int type = head.getInt();
+				long size = head.getLong();
+				offset += 12;
+				if (type == SECTION_WEIGHTS) {
+					params.funWeight = readDoubles(channel, offset, (int) (size / 8));
+				} else if (type >= SECTION_PARAMS && type <= SECTION_B_DICT) {
+					ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+					switch (type) {
+					case SECTION_PARAMS:
+						params.K = in.getInt();
+						params.col = in.getInt();
+						params.uHashBuckets = in.getInt();
+						params.bHashBuckets = in.getInt();
+						break;
+					case SECTION_LABELS:
+						int labelNum = in.getInt();
+						params.labels = new ArrayList<String>(labelNum);
+						for (int i = 0; i < labelNum; i++)
+							params.labels.add(readString(in));
+						break;
+					case SECTION_TEMPLATES:
+						int templateNum = in.getInt();
+						params.templates = new HashMap<String, Integer[]>();
+						for (int i = 0; i < templateNum; i++) {
+							String name = readString(in);
+							Integer[] numbers = new Integer[in.getInt()];
+							for (int j = 0; j < numbers.length; j++)
+								numbers[j] = in.getInt();
+							params.templates.put(name, numbers);
+						}
+						break;
+					case SECTION_U_DICT:
+						params.uFeatureAddr = FeatureDict.read(in);
+						break;
+					case SECTION_B_DICT:
+						params.bFeatureAddr = FeatureDict.read(in);
+						break;
+					}
+				}
+				offset += size;
+			}
+			return params;
+		} finally {
+			channel.close();
+			file.close();
+		}
+	}
+
+	private static void section(DataOutputStream out, int type, long size) throws IOException {
+		out.writeInt(type);
+		out.writeLong(size);
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] b = new byte[in.getInt()];
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 写入数组a的前n个元素
+	 */
+	static void writeInts(DataOutputStream out, int[] a, int n) throws IOException {
+		for (int i = 0; i < n; i++)
+			out.writeInt(a[i]);
+	}
+
+	/**
+	 * 批量读取n个int，读取后in的位置移动到其后
+	 */
+	static int[] readInts(ByteBuffer in, int n) {
+		int[] a = new int[n];
+		in.asIntBuffer().get(a);
+		in.position(in.position() + 4 * n);
+		return a;
+	}
+
+	/**
+	 * 分块映射并批量读取n个double
+	 */
+	private static double[] readDoubles(FileChannel channel, long offset, int n) throws IOException {
+		double[] a = new double[n];
+		int step = MAX_MAP / 8;
+		for (int from = 0; from < n; from += step) {
+			int len = Math.min(step, n - from);
+			DoubleBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, offset + 8L * from, 8L * len).asDoubleBuffer();
+			in.get(a, from, len);
+		}
+		return a;
+	}
+}
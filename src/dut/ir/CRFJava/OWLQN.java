@@ -0,0 +1,252 @@
+package dut.ir.CRFJava;
+
+/**
+ * FileName： OWLQN.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：OWL-QN（Orthant-Wise Limited-memory Quasi-Newton）算法，用于最小化 f(x) + l1 * |x|_1，其中f可微 <br/>
+ *     参见：Galen Andrew and Jianfeng Gao, Scalable training of L1-regularized log-linear models, ICML 2007 <br/>
+ *     与LBFGS相比：用伪梯度代替梯度，搜索方向限制在伪梯度的反方向所在的象限内，线搜索时把越过象限的分量置为0，
+ *     因此训练得到的参数中有大量的0；l1为0时不限制象限，即为带回溯线搜索的LBFGS <br/>
+ *     所有状态都保存在实例中，多个实例可以在不同的线程中同时优化
+ */
+
+public class OWLQN {
+	/**
+	 * 可微部分f
+	 */
+	public interface Function {
+		/**
+		 * 计算f在当前参数x处的值和梯度，x即为构造OWLQN时传入的数组
+		 * @param gradient 梯度，由该方法填入
+		 * @return f的值
+		 */
+		double evaluate(double[] gradient);
+	}
+
+	private final int n;
+
+	/**
+	 * 保存的历史向量对的个数
+	 */
+	private final int m;
+
+	/**
+	 * L1正则项的系数
+	 */
+	private final double l1;
+
+	private final Function function;
+
+	/**
+	 * 当前的参数，与调用者共享，function在该数组上计算
+	 */
+	private final double[] x;
+
+	private final double[] xOld;
+	private final double[] gradient;
+	private final double[] gradientOld;
+	private final double[] pseudo;
+	private final double[] direction;
+
+	/**
+	 * 最近m次迭代的s = x(k+1) - x(k)和y = g(k+1) - g(k)，循环存储
+	 */
+	private final double[][] s;
+	private final double[][] y;
+	private final double[] rho;
+	private final double[] alpha;
+
+	/**
+	 * 已保存的向量对的个数和下一个写入的位置
+	 */
+	private int count, head;
+
+	/**
+	 * 当前的目标函数值f(x) + l1 * |x|_1
+	 */
+	private double value;
+
+	/**
+	 * 当前的可微部分f(x)
+	 */
+	private double smooth;
+
+	private int iteration;
+
+	/**
+	 * @param x 初始参数，优化过程中原地修改
+	 * @param m 保存的历史向量对的个数
+	 * @param l1 L1正则项的系数
+	 * @param function 可微部分
+	 */
+	public OWLQN(double[] x, int m, double l1, Function function) {
+		this.n = x.length;
+		this.m = m;
+		this.l1 = l1;
+		this.function = function;
+		this.x = x;
+		this.xOld = new double[n];
+		this.gradient = new double[n];
+		this.gradientOld = new double[n];
+		this.pseudo = new double[n];
+		this.direction = new double[n];
+		this.s = new double[m][n];
+		this.y = new double[m][n];
+		this.rho = new double[m];
+		this.alpha = new double[m];
+		smooth = function.evaluate(gradient);
+		value = smooth + l1 * norm1(x);
+	}
+
+	/**
+	 * 当前的目标函数值f(x) + l1 * |x|_1
+	 */
+	public double value() {
+		return value;
+	}
+
+	/**
+	 * 当前的可微部分f(x)
+	 */
+	public double smooth() {
+		return smooth;
+	}
+
+	/**
+	 * 进行一次迭代：计算伪梯度和搜索方向，沿搜索方向进行回溯线搜索，并更新历史向量对
+	 * @return 线搜索失败（目标函数无法下降）时返回false，此时x保持不变
+	 */
+	public boolean iterate() {
+		pseudoGradient();
+		searchDirection();
+
+		double slope = 0;// 方向导数
+		for (int i = 0; i < n; i++)
+			slope += direction[i] * pseudo[i];
+		if (slope >= 0)
+			return false;
+
+		System.arraycopy(x, 0, xOld, 0, n);
+		System.arraycopy(gradient, 0, gradientOld, 0, n);
+		double oldValue = value;
+		double oldSmooth = smooth;
+
+		double step = 1;
+		if (iteration == 0) {// 第一次迭代时搜索方向即为负伪梯度，按其长度缩放
+			double norm = 0;
+			for (int i = 0; i < n; i++)
+				norm += direction[i] * direction[i];
+			step = 1 / Math.sqrt(norm);
+		}
+		for (int trial = 0;; trial++) {
+			double decrease = 0;
+			for (int i = 0; i < n; i++) {
+				double xi = xOld[i] + step * direction[i];
+				double orthant = xOld[i] != 0 ? xOld[i] : -pseudo[i];
+				if (l1 > 0 && xi * orthant <= 0)// 越过象限的分量置为0
+					xi = 0;
+				x[i] = xi;
+				decrease += pseudo[i] * (xi - xOld[i]);
+			}
+			smooth = function.evaluate(gradient);
+			value = smooth + l1 * norm1(x);
+			if (value <= oldValue + 1e-4 * decrease)
+				break;
+			if (trial == 30) {// 恢复原来的参数
+				System.arraycopy(xOld, 0, x, 0, n);
+				System.arraycopy(gradientOld, 0, gradient, 0, n);
+				value = oldValue;
+				smooth = oldSmooth;
+				return false;
+			}
+			step *= 0.5;
+		}
+
+		double sy = 0;
+		for (int i = 0; i < n; i++)
+			sy += (x[i] - xOld[i]) * (gradient[i] - gradientOld[i]);
+		if (sy > 0) {// 只保存满足曲率条件的向量对
+			double[] sk = s[head];
+			double[] yk = y[head];
+			for (int i = 0; i < n; i++) {
+				sk[i] = x[i] - xOld[i];
+				yk[i] = gradient[i] - gradientOld[i];
+			}
+			rho[head] = 1 / sy;
+			head = (head + 1) % m;
+			count = Math.min(count + 1, m);
+		}
+		iteration++;
+		return true;
+	}
+
+	/**
+	 * 计算f(x) + l1 * |x|_1的伪梯度：x_i不为0时为梯度加上l1 * sign(x_i)，
+	 * x_i为0时取左右导数中使目标函数下降的一个，都不能下降时为0
+	 */
+	private void pseudoGradient() {
+		for (int i = 0; i < n; i++) {
+			double g = gradient[i];
+			if (x[i] > 0)
+				pseudo[i] = g + l1;
+			else if (x[i] < 0)
+				pseudo[i] = g - l1;
+			else if (g + l1 < 0)
+				pseudo[i] = g + l1;
+			else if (g - l1 > 0)
+				pseudo[i] = g - l1;
+			else
+				pseudo[i] = 0;
+		}
+	}
+
+	/**
+	 * 用两次循环递归计算 -H * pseudo，使用L1正则项时把与-pseudo符号不同的分量置为0
+	 */
+	private void searchDirection() {
+		double[] q = direction;
+		for (int i = 0; i < n; i++)
+			q[i] = -pseudo[i];
+		for (int j = 0, k = head; j < count; j++) {
+			k = (k + m - 1) % m;
+			double a = rho[k] * dot(s[k], q);
+			alpha[k] = a;
+			axpy(-a, y[k], q);
+		}
+		if (count > 0) {
+			int last = (head + m - 1) % m;
+			double scale = 1 / (rho[last] * dot(y[last], y[last]));
+			for (int i = 0; i < n; i++)
+				q[i] *= scale;
+		}
+		for (int j = 0, k = (head + m - count) % m; j < count; j++, k = (k + 1) % m) {
+			double b = rho[k] * dot(y[k], q);
+			axpy(alpha[k] - b, s[k], q);
+		}
+		if (l1 > 0) {
+			for (int i = 0; i < n; i++) {
+				if (q[i] * pseudo[i] >= 0)
+					q[i] = 0;
+			}
+		}
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+
+	private static void axpy(double a, double[] x, double[] y) {
+		for (int i = 0; i < x.length; i++)
+			y[i] += a * x[i];
+	}
+
+	private static double norm1(double[] x) {
+		double sum = 0;
+		for (int i = 0; i < x.length; i++)
+			sum += Math.abs(x[i]);
+		return sum;
+	}
+}
@@ -0,0 +1,118 @@
+package dut.ir.CRFJava;
+
+/**
+ * FileName： TokenCorpus.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：整数编码的句子语料 <br/>
+ *     读取时，每一列的值都被加入该列的符号表columns[c]，用其在符号表中的序号表示，所有单词的所有列依次存入symbols， <br/>
+ *     第t个单词第c列的符号为symbols[t * col + c]；模板直接在整数符号上求值，不再保存String形式的句子
+ */
+
+public class TokenCorpus {
+	/**
+	 * 句子的列数，包含标签列
+	 */
+	public final int col;
+
+	/**
+	 * 每一列的符号表，符号的序号即为其在符号表中的序号
+	 */
+	public final FeatureDict[] columns;
+
+	/**
+	 * 所有单词所有列的符号，按单词优先存储
+	 */
+	public final IntList symbols = new IntList(1024);
+
+	/**
+	 * 每个句子第一个单词的编号，最后一个元素为单词总数
+	 */
+	public final IntList sentenceStart = new IntList();
+
+	/**
+	 * 读取句子时使用的缓冲区
+	 */
+	public final KeyBuilder key = new KeyBuilder();
+
+	public TokenCorpus(int col) {
+		this.col = col;
+		this.columns = new FeatureDict[col];
+		for (int c = 0; c < col; c++)
+			columns[c] = new FeatureDict();
+		sentenceStart.add(0);
+	}
+
+	/**
+	 * 句子数
+	 */
+	public int sentenceNum() {
+		return sentenceStart.size - 1;
+	}
+
+	/**
+	 * 单词总数
+	 */
+	public int tokenNum() {
+		return symbols.size / col;
+	}
+
+	/**
+	 * @param sid 句子索引
+	 * @return 句子第一个单词的编号
+	 */
+	public int first(int sid) {
+		return sentenceStart.data[sid];
+	}
+
+	/**
+	 * @param sid 句子索引
+	 * @return 句子的长度
+	 */
+	public int length(int sid) {
+		return sentenceStart.data[sid + 1] - sentenceStart.data[sid];
+	}
+
+	/**
+	 * @return 第t个单词第c列的符号
+	 */
+	public int symbol(int t, int c) {
+		return symbols.data[t * col + c];
+	}
+
+	/**
+	 * 把第t个单词第c列的值以UTF-8编码追加到key中
+	 */
+	public void appendSymbol(int t, int c, KeyBuilder key) {
+		columns[c].appendKey(symbols.data[t * col + c], key);
+	}
+
+	/**
+	 * 加入当前单词第c列的值，每个单词的各列需要依次加入
+	 * @param key 该列的值
+	 */
+	public void addSymbol(int c, KeyBuilder key) {
+		symbols.add(columns[c].add(key, columns[c].size()));
+	}
+
+	/**
+	 * 结束当前句子
+	 * @return 句子的长度
+	 */
+	public int endSentence() {
+		int length = tokenNum() - sentenceStart.data[sentenceStart.size - 1];
+		if (length > 0)
+			sentenceStart.add(tokenNum());
+		return length;
+	}
+
+	/**
+	 * 清空所有句子和符号表，保留已分配的空间
+	 */
+	public void clear() {
+		symbols.clear();
+		sentenceStart.clear();
+		sentenceStart.add(0);
+		for (int c = 0; c < col; c++)
+			columns[c].clear();
+	}
+}
@@ -0,0 +1,146 @@
+package dut.ir.CRFJava;
+
+/**
+ * FileName： TrainOptions.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：CRFTrainer的训练选项，所有选项都有默认值，只需要修改关心的选项 <br/>
+ *     为简化代码，所有的成员变量声明为public
+ */
+
+public class TrainOptions {
+	/**
+	 * 训练算法：批量LBFGS
+	 */
+	public static final int LBFGS = 0;
+
+	/**
+	 * 训练算法：AdaGrad随机梯度下降，每次使用batchSize个句子更新参数
+	 */
+	public static final int ADAGRAD = 1;
+
+	/**
+	 * 训练算法：平均感知机，只使用viterbi解码和稀疏更新，不计算前向后向，也不使用正则化
+	 */
+	public static final int PERCEPTRON = 2;
+
+	/**
+	 * 训练算法，LBFGS、ADAGRAD或PERCEPTRON
+	 */
+	public int algorithm = LBFGS;
+
+	/**
+	 * 特征频次阈值，出现次数小于该阈值的特征被删除，特征哈希模式下不使用
+	 */
+	public int threshold = 1;
+
+	/**
+	 * 正则化参数，delta * delta为负对数似然函数与权重的调和参数，该值越大，越拟合训练数据
+	 */
+	public double delta = 1;
+
+	/**
+	 * L1正则项的系数，大于0时LBFGS算法使用OWL-QN进行优化，与delta同时使用即为elastic net，
+	 * delta为Double.POSITIVE_INFINITY时只使用L1正则项；训练完成后删除权值全为0的特征
+	 */
+	public double l1 = 0;
+
+	/**
+	 * 计算损失函数和梯度时使用的线程数，相同的线程数得到的模型完全相同 <br/>
+	 * 除第一个线程外，每个线程有一个与funWeight等长的梯度缓冲区，内存为(threadNum - 1) * 特征函数数 * 8字节，模型很大时应减少线程数
+	 */
+	public int threadNum = 1;
+
+	/**
+	 * 特征哈希模式下状态特征的桶数，为0时使用特征字典 <br/>
+	 * 大于0时，特征字符串直接哈希到固定数量的桶中，不统计特征，也不保存特征字典，funWeight的大小只与桶数有关
+	 */
+	public int uHashBuckets = 0;
+
+	/**
+	 * 特征哈希模式下转移特征的桶数，uHashBuckets大于0时必须大于0
+	 */
+	public int bHashBuckets = 0;
+
+	/**
+	 * 随机梯度下降和感知机的迭代轮数，每一轮遍历一次训练数据
+	 */
+	public int epochs = 10;
+
+	/**
+	 * AdaGrad的初始学习率，为0时在训练数据的样本上自动选择
+	 */
+	public double learningRate = 0;
+
+	/**
+	 * 随机梯度下降每次更新使用的句子数
+	 */
+	public int batchSize = 1;
+
+	/**
+	 * 自动选择学习率时使用的句子数
+	 */
+	public int calibrationSize = 1000;
+
+	/**
+	 * 随机梯度下降和感知机每轮打乱句子顺序时使用的随机数种子，相同的种子得到的模型完全相同
+	 */
+	public long seed = 1;
+
+	/**
+	 * 外存训练时编码后语料的文件，为null时整个语料保存在内存中 <br/>
+	 * 不为null时，抽取特征的同时把每个单词的特征首地址和标签分块写入该文件（见CorpusFile），
+	 * 每次计算损失函数时依次读入每一块，内存中只有特征字典和一块语料，与语料的大小无关；只支持LBFGS算法（包括OWL-QN）
+	 */
+	public String spillFile = null;
+
+	/**
+	 * 外存训练时每块语料的单词数，块越大，每块内并行计算的效率越高，占用的内存也越多
+	 */
+	public int chunkTokens = 1 << 20;
+
+	/**
+	 * 预处理结果的缓存目录，为null时不使用缓存 <br/>
+	 * 预处理结果包括标签、特征字典和编码后的语料，以训练文件、模板文件、threshold和哈希桶数的SHA-256为键保存在该目录中，
+	 * 之后的训练直接读取缓存，不再抽取特征；外存训练时直接使用缓存中的语料文件，不再写入spillFile
+	 */
+	public String cacheDir = null;
+
+	/**
+	 * 每隔多少次迭代（随机梯度下降为轮）评价一次准确率，为0时不评价 <br/>
+	 * 每次评价都要viterbi解码全部评价数据，不在后台评价时训练要等待解码结束；
+	 * 默认每次迭代评价，评价数据为evalSample个抽样句子，代价与训练数据的大小无关
+	 */
+	public int evalInterval = 1;
+
+	/**
+	 * 评价时从训练数据中随机抽取的句子数，为0时使用全部训练数据（每次评价都解码整个训练集）；devFile不为null时不使用
+	 */
+	public int evalSample = 1000;
+
+	/**
+	 * 评价使用的开发集，格式与训练文件相同，为null时使用训练数据
+	 */
+	public String devFile = null;
+
+	/**
+	 * 是否在后台线程中评价：评价使用当前参数的快照，不阻塞训练，评价结果可能在之后的迭代中输出
+	 */
+	public boolean evalBackground = false;
+
+	/**
+	 * 早停：大于0时，连续patience次评价的单词准确率没有超过最好值就停止训练，并写入评价结果最好的参数；
+	 * 通常与devFile同时使用，为0时不早停
+	 */
+	public int patience = 0;
+
+	/**
+	 * 热启动使用的模型文件，为null时从0开始训练 <br/>
+	 * 不为null时，原模型的标签和特征都被保留，并加入新数据中的标签和特征（新特征按threshold精简），
+	 * 原有特征的权值从原模型复制，新特征的权值为0；训练文件的列数和特征哈希的桶数必须与原模型相同
+	 */
+	public String initModel = null;
+
+	public TrainOptions() {
+
+	}
+}
@@ -0,0 +1,1185 @@
+package dut.ir.CRFJava;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * FileName： CRFCheck.java <br/>
+ * package：dut.ir.CRFJava <br/>
+ * 功能：可以直接运行的自检程序，在项目根目录下运行，使用data中的训练数据和模板；任何一项检查失败时抛出异常 <br/>
+ *     编译和运行：javac -encoding UTF-8 -cp lib/LBFGS.jar -d out src/dut/ir/CRFJava/*.java test/dut/ir/CRFJava/*.java，
+ *     java -cp out:lib/LBFGS.jar dut.ir.CRFJava.CRFCheck
+ */
+
+public class CRFCheck {
+	static final String TRAIN = "data/train.data";
+	static final String TEST = "data/test.data";
+	static final String TEMPLATE = "data/template";
+
+	/**
+	 * 临时文件所在的目录，运行结束后删除
+	 */
+	static File dir;
+
+	public static void main(String[] args) throws Exception {
+		dir = File.createTempFile("crfcheck", "");
+		dir.delete();
+		dir.mkdir();
+		try {
+			checkForwardBackward();
+			checkScaling();
+			checkViterbi();
+			checkGradient();
+			checkLattice();
+			checkCorpus();
+			checkFeatures();
+			checkFeatureDict();
+			checkModelFile();
+			checkHashing();
+			checkEncoding();
+			checkCorpusReader();
+			checkModel();
+			checkTagger();
+			checkAdaGrad();
+			checkPerceptron();
+			checkOWLQN();
+			checkCorpusFile();
+			checkCache();
+			checkSweep();
+			checkCrossValidate();
+			checkEvaluation();
+			checkEarlyStopping();
+			checkWarmStart();
+			checkAdaGradWarmStart();
+			checkThreads();
+		} finally {
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+		System.out.println("自检通过");
+	}
+
+	/**
+	 * 在短句子上，缩放的前向后向得到的log(zeta)和边缘概率、viterbi的结果与穷举所有标签序列的结果相同；
+	 * 穷举时转移分数逐个计算，不使用转移分数缓存
+	 */
+	static void checkForwardBackward() throws IOException {
+		CRFTrainer crf = trainer(sentences(TRAIN, 8, 6), temp("model"), 1);
+		randomWeights(crf, 3, 1);
+		int K = crf.crfParams.K;
+		for (int s = 0; s < sentenceNum(crf); s++) {
+			int n = length(crf, s);
+			int paths = (int) Math.pow(K, n);
+			double[] score = new double[paths];
+			for (int p = 0; p < paths; p++)
+				score[p] = pathScore(crf, s, path(p, K, n));
+			double logZ = logSumExp(score);
+			int best = 0;
+			for (int p = 1; p < paths; p++)
+				if (score[p] > score[best])
+					best = p;
+			check(Arrays.equals(Arrays.copyOf(crf.viterbi(s), n), path(best, K, n)), "句子" + s + "的viterbi结果不是得分最高的标签序列");
+			double[] marginal = new double[n * K];
+			for (int p = 0; p < paths; p++) {
+				int[] y = path(p, K, n);
+				for (int i = 0; i < n; i++)
+					marginal[i * K + y[i]] += Math.exp(score[p] - logZ);
+			}
+
+			double[] scaled = new double[n * K];
+			close(forwardBackward(crf, s, scaled), logZ, "句子" + s + "的log(zeta)");
+			for (int i = 0; i < n * K; i++)
+				close(scaled[i], marginal[i], "句子" + s + "的边缘概率");
+		}
+	}
+
+	/**
+	 * 权值很大时，缩放的前向算法在长句子上仍与对数空间的前向算法相同，不溢出
+	 */
+	static void checkScaling() throws IOException {
+		CRFTrainer crf = trainer(TRAIN, temp("model"), 1);
+		randomWeights(crf, 50, 2);
+		int K = crf.crfParams.K;
+		double[] prev = new double[K], cur = new double[K], terms = new double[K];
+		for (int s = 0; s < sentenceNum(crf); s++) {
+			int n = length(crf, s);
+			for (int k = 0; k < K; k++)
+				prev[k] = state(crf, s, 0, k);
+			for (int i = 1; i < n; i++) {
+				for (int k = 0; k < K; k++) {
+					for (int m = 0; m < K; m++)
+						terms[m] = prev[m] + trans(crf, s, i, m, k);
+					cur[k] = logSumExp(terms) + state(crf, s, i, k);
+				}
+				double[] t = prev;
+				prev = cur;
+				cur = t;
+			}
+			double logZ = forwardBackward(crf, s, null);
+			check(!Double.isNaN(logZ) && !Double.isInfinite(logZ), "句子" + s + "的log(zeta)溢出");
+			close(logZ, logSumExp(prev), "长句子" + s + "的log(zeta)");
+		}
+	}
+
+	/**
+	 * loss计算的梯度与数值差分相同
+	 */
+	static void checkGradient() throws IOException {
+		checkGradient(trainer(sentences(TRAIN, 10, 8), temp("model"), 1));
+	}
+
+	static void checkGradient(CRFTrainer crf) throws IOException {
+		randomWeights(crf, 0.5, 3);
+		double[] w = crf.crfParams.funWeight;
+		double[] gradient = new double[w.length];
+		double[] unused = new double[w.length];
+		crf.loss(gradient);
+		Random random = new Random(4);
+		double h = 1e-5;
+		for (int trial = 0; trial < 20; trial++) {
+			int j = random.nextInt(w.length);
+			double old = w[j];
+			w[j] = old + h;
+			double plus = crf.loss(unused);
+			w[j] = old - h;
+			double minus = crf.loss(unused);
+			w[j] = old;
+			double numeric = (plus - minus) / (2 * h);
+			check(Math.abs(numeric - gradient[j]) <= 1e-5 * Math.max(1, Math.abs(numeric)),
+					"第" + j + "个特征函数的梯度" + gradient[j] + "与数值差分" + numeric + "不同");
+		}
+	}
+
+	/**
+	 * 权值很大时，viterbi的标签序列的得分仍等于逐个句子动态规划得到的最大得分，不下溢
+	 */
+	static void checkViterbi() throws IOException {
+		CRFTrainer crf = trainer(TRAIN, temp("model"), 1);
+		randomWeights(crf, 50, 5);
+		int K = crf.crfParams.K;
+		double[] prev = new double[K], cur = new double[K];
+		for (int s = 0; s < sentenceNum(crf); s++) {
+			int n = length(crf, s);
+			for (int k = 0; k < K; k++)
+				prev[k] = state(crf, s, 0, k);
+			for (int i = 1; i < n; i++) {
+				for (int k = 0; k < K; k++) {
+					cur[k] = Double.NEGATIVE_INFINITY;
+					for (int m = 0; m < K; m++)
+						cur[k] = Math.max(cur[k], prev[m] + trans(crf, s, i, m, k));
+					cur[k] += state(crf, s, i, k);
+				}
+				double[] t = prev;
+				prev = cur;
+				cur = t;
+			}
+			double max = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < K; k++)
+				max = Math.max(max, prev[k]);
+			close(pathScore(crf, s, Arrays.copyOf(crf.viterbi(s), n)), max, "句子" + s + "的viterbi得分");
+		}
+	}
+
+	/**
+	 * 在长短不同的句子之间重复使用同一个工作区，前向后向和viterbi的结果与每次使用新工作区完全相同
+	 */
+	static void checkLattice() throws IOException {
+		CRFTrainer crf = trainer(TRAIN, temp("model"), 1);
+		randomWeights(crf, 1, 7);
+		int K = crf.crfParams.K;
+		Lattice shared = new Lattice(K);
+		for (int s = sentenceNum(crf) - 1; s >= 0; s--) {
+			int n = length(crf, s);
+			double[] reused = new double[n * K], fresh = new double[n * K];
+			check(forwardBackward(crf, s, reused, shared) == forwardBackward(crf, s, fresh) && Arrays.equals(reused, fresh),
+					"句子" + s + "重复使用工作区的前向后向结果不同");
+			int[] path = Arrays.copyOf(crf.viterbi(s, shared), n);
+			check(Arrays.equals(path, Arrays.copyOf(crf.viterbi(s), n)), "句子" + s + "重复使用工作区的viterbi结果不同");
+		}
+	}
+
+	/**
+	 * 特征语料的偏移数组单调不减且首尾与数组长度一致，单词数与训练文件的非空行数相同，标签都在范围内
+	 */
+	static void checkCorpus() throws IOException {
+		CRFTrainer crf = trainer(TRAIN, temp("model"), 1);
+		FeatureCorpus corpus = crf.corpus;
+		int tokens = 0;
+		for (String line : Files.readAllLines(new File(TRAIN).toPath(), StandardCharsets.UTF_8))
+			if (!line.trim().isEmpty())
+				tokens++;
+		check(corpus.tokenNum == tokens, "单词数" + corpus.tokenNum + "与训练文件的" + tokens + "行不同");
+		check(corpus.sentenceStart[0] == 0 && corpus.sentenceStart[corpus.sentenceNum] == corpus.tokenNum, "句子偏移的首尾错误");
+		check(corpus.uFeatureStart[0] == 0 && corpus.uFeatureStart[corpus.tokenNum] == corpus.uFeatureArray.length, "状态特征偏移的首尾错误");
+		check(corpus.bFeatureStart[0] == 0 && corpus.bFeatureStart[corpus.tokenNum] == corpus.bFeatureArray.length, "转移特征偏移的首尾错误");
+		for (int s = 0; s < corpus.sentenceNum; s++)
+			check(corpus.length(s) > 0, "句子" + s + "为空");
+		for (int t = 0; t < corpus.tokenNum; t++) {
+			check(corpus.uFeatureStart[t] <= corpus.uFeatureStart[t + 1] && corpus.bFeatureStart[t] <= corpus.bFeatureStart[t + 1],
+					"单词" + t + "的特征偏移递减");
+			check(corpus.labels[t] >= 0 && corpus.labels[t] < crf.crfParams.K, "单词" + t + "的标签越界");
+		}
+	}
+
+	/**
+	 * 训练得到的特征集合与按原来的方式逐个拼接特征字符串、计数并按阈值过滤的结果相同
+	 */
+	static void checkFeatures() throws IOException {
+		CRFTrainer crf = trainer(TRAIN, temp("model"), 1);
+		List<String> names = new ArrayList<String>();
+		List<int[]> offsets = new ArrayList<int[]>();
+		Pattern p = Pattern.compile("\\[(-*\\d+),(\\d+)\\]");
+		for (String line : Files.readAllLines(new File(TEMPLATE).toPath(), StandardCharsets.UTF_8)) {
+			if (!line.startsWith("U") && !line.startsWith("B"))
+				continue;
+			String[] tem = line.split(":");
+			List<Integer> numbers = new ArrayList<Integer>();
+			if (tem.length == 2)
+				for (Matcher m = p.matcher(tem[1]); m.find();) {
+					numbers.add(Integer.valueOf(m.group(1)));
+					numbers.add(Integer.valueOf(m.group(2)));
+				}
+			int[] offset = new int[numbers.size()];
+			for (int k = 0; k < offset.length; k++)
+				offset[k] = numbers.get(k);
+			names.add(tem[0]);
+			offsets.add(offset);
+		}
+		Map<String, Integer> count = new HashMap<String, Integer>();
+		List<String[]> sentence = new ArrayList<String[]>();
+		List<String> lines = new ArrayList<String>(Files.readAllLines(new File(TRAIN).toPath(), StandardCharsets.UTF_8));
+		lines.add("");
+		for (String line : lines) {
+			if (!line.trim().isEmpty()) {
+				sentence.add(line.split("\\s"));
+				continue;
+			}
+			for (int m = 0; m < sentence.size(); m++)
+				for (int t = 0; t < names.size(); t++) {
+					String feature = names.get(t) + ":";
+					int[] offset = offsets.get(t);
+					for (int k = 0; k < offset.length; k += 2)
+						if (offset[k] + m >= 0 && offset[k] + m < sentence.size())
+							feature += sentence.get(offset[k] + m)[offset[k + 1]];
+					Integer c = count.get(feature);
+					count.put(feature, c == null ? 1 : c + 1);
+				}
+			sentence.clear();
+		}
+		Set<String> u = new HashSet<String>(), b = new HashSet<String>();
+		for (Map.Entry<String, Integer> e : count.entrySet()) {
+			if (e.getKey().startsWith("U") && e.getValue() >= 1)
+				u.add(e.getKey());
+			else if (!e.getKey().startsWith("U") && e.getValue() > 1)
+				b.add(e.getKey());
+		}
+		check(u.equals(keys(crf, true)), "状态特征集合与逐个拼接的结果不同");
+		check(b.equals(keys(crf, false)), "转移特征集合与逐个拼接的结果不同");
+	}
+
+	/**
+	 * 特征字典的添加、查找和二进制读写：扩容和重建哈希表后每个key的值和序号不变，读取的字典可以继续添加
+	 */
+	static void checkFeatureDict() throws IOException {
+		FeatureDict dict = new FeatureDict();
+		ArrayList<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) {
+			String key = "U0" + (i % 7) + ":" + (i % 3 == 0 ? "中文" : "w") + i;
+			keys.add(key);
+			dict.put(key, i * 3);
+		}
+		KeyBuilder key = new KeyBuilder();
+		key.append("U03:中文3");
+		check(dict.get(key) == 9 && dict.add(key, -1) == 3, "KeyBuilder查找的结果不正确");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		dict.write(out);
+		out.close();
+		check(bytes.size() == dict.binarySize(), "binarySize与写入的字节数不同");
+
+		FeatureDict read = FeatureDict.read(ByteBuffer.wrap(bytes.toByteArray()));
+		check(read.size() == keys.size(), "读取的字典大小不正确");
+		for (int e = 0; e < keys.size(); e++) {
+			check(read.get(keys.get(e)) == e * 3, "读取的字典中" + keys.get(e) + "的值不正确");
+			check(read.key(e).equals(keys.get(e)), "读取的字典中第" + e + "个key不正确");
+		}
+		check(read.get("U00:不存在") == -1, "不存在的key应返回-1");
+		for (int i = 0; i < 5000; i++)
+			read.put("B:" + i, i);
+		check(read.get("B:4999") == 4999 && read.get(keys.get(0)) == 0, "读取的字典添加后不正确");
+
+		FeatureDict empty = FeatureDict.read(ByteBuffer.wrap(toBytes(new FeatureDict())));
+		empty.put("U00:a", 1);
+		check(empty.get("U00:a") == 1, "读取的空字典不能添加");
+	}
+
+	/**
+	 * 模型文件写入后读取，再写入得到相同的字节，各项参数不变；旧版本的模型文件转换后参数不变
+	 */
+	static void checkModelFile() throws Exception {
+		String model = temp("model.bin");
+		new CRFTrainer(TRAIN, TEMPLATE, model, options(1)).train();
+		CRFParams params = ModelFile.read(model);
+		String copy = temp("model.copy");
+		ModelFile.write(params, copy);
+		check(Arrays.equals(bytes(model), bytes(copy)), "模型文件读取后再写入得到的字节不同");
+		sameParams(ModelFile.read(copy), params);
+
+		CRFParams legacy = ModelFile.load("data/model");
+		check(!ModelFile.isBinary("data/model") && legacy.uFeatureAddr.size() > 0, "旧版本的模型文件读取失败");
+		String converted = temp("model.converted");
+		ModelFile.write(legacy, converted);
+		check(ModelFile.isBinary(converted), "转换后的模型文件不是二进制格式");
+		sameParams(ModelFile.load(converted), legacy);
+	}
+
+	static void sameParams(CRFParams read, CRFParams params) {
+		check(read.K == params.K && read.col == params.col && read.labels.equals(params.labels), "模型的标签或列数不正确");
+		check(read.templates.keySet().equals(params.templates.keySet()), "模型的模板不正确");
+		check(Arrays.equals(read.funWeight, params.funWeight), "模型的权值不正确");
+		check(read.uFeatureAddr.size() == params.uFeatureAddr.size() && read.bFeatureAddr.size() == params.bFeatureAddr.size(),
+				"模型的特征字典大小不正确");
+		for (int e = 0; e < params.uFeatureAddr.size(); e++)
+			check(read.uFeatureAddr.get(params.uFeatureAddr.key(e)) == params.uFeatureAddr.value(e), "模型的状态特征字典不正确");
+		for (int e = 0; e < params.bFeatureAddr.size(); e++)
+			check(read.bFeatureAddr.get(params.bFeatureAddr.key(e)) == params.bFeatureAddr.value(e), "模型的转移特征字典不正确");
+	}
+
+	/**
+	 * 特征哈希模式下权值的个数只与桶数有关，带符号的特征值得到正确的梯度，两次训练得到完全相同的模型
+	 */
+	static void checkHashing() throws IOException {
+		TrainOptions options = new TrainOptions();
+		options.uHashBuckets = 1 << 12;
+		options.bHashBuckets = 4;
+		CRFTrainer crf = new CRFTrainer(sentences(TRAIN, 10, 8), TEMPLATE, temp("model"), options);
+		int K = crf.crfParams.K;
+		check(crf.crfParams.funWeight.length == options.uHashBuckets * K + options.bHashBuckets * K * K,
+				"特征哈希模式下权值的个数为" + crf.crfParams.funWeight.length);
+		checkGradient(crf);
+
+		String first = temp("hash1"), second = temp("hash2");
+		new CRFTrainer(TRAIN, TEMPLATE, first, options).train();
+		new CRFTrainer(TRAIN, TEMPLATE, second, options).train();
+		check(Arrays.equals(bytes(first), bytes(second)), "特征哈希模式下两次训练的模型不同");
+	}
+
+	/**
+	 * 含多字节UTF-8字符的语料训练后再标记，输出的每一列与输入的字节完全相同，最后一列为合法的标签
+	 */
+	static void checkEncoding() throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (String line : Files.readAllLines(new File(sentences(TRAIN, 10, 8)).toPath(), StandardCharsets.UTF_8))
+			content.append(line.isEmpty() ? "" : "中" + line.replace(' ', '\t') + "\u00e9").append('\n');
+		String input = write("utf8", content.toString());
+		String model = temp("utf8.model"), output = temp("utf8.out");
+		new CRFTrainer(input, TEMPLATE, model, 1, 1, 1).train();
+		CRFTagger tagger = new CRFTagger(model);
+		tagger.tagger(input, output);
+		List<String> in = new ArrayList<String>(), out = new ArrayList<String>();
+		for (String line : Files.readAllLines(new File(input).toPath(), StandardCharsets.UTF_8))
+			if (!line.isEmpty())
+				in.add(line);
+		for (String line : Files.readAllLines(new File(output).toPath(), StandardCharsets.UTF_8))
+			if (!line.isEmpty())
+				out.add(line);
+		check(in.size() == out.size(), "标记结果的行数" + out.size() + "与输入的" + in.size() + "行不同");
+		int col = tagger.crfParams.col;
+		for (int i = 0; i < in.size(); i++) {
+			String[] source = in.get(i).split("\t"), tagged = out.get(i).split("\t");
+			check(tagged.length == col + 1 && Arrays.equals(Arrays.copyOf(source, col), Arrays.copyOf(tagged, col)),
+					"第" + i + "行的标记结果" + out.get(i) + "与输入不同");
+			check(tagger.crfParams.labels.contains(tagged[col]), "第" + i + "行的标签" + tagged[col] + "不合法");
+		}
+	}
+
+	/**
+	 * \r\n换行、多个空行、文件开头和结尾的空行、最后一个句子后没有换行、以\t分隔或行末有空白时，读取的句子都与标准格式相同
+	 */
+	static void checkCorpusReader() throws IOException {
+		String standard = "a x B\nb y I\n\nc z O\n\nd w B\ne v I\nf u O\n";
+		String[] variants = {
+				"a x B\r\nb y I\r\n\r\nc z O\r\n\r\nd w B\r\ne v I\r\nf u O\r\n",
+				"\n\na x B\nb y I\n\n\n\nc z O\n\nd w B\ne v I\nf u O\n\n\n",
+				"a x B\nb y I\n\nc z O\n\nd w B\ne v I\nf u O",
+				"a x B\r\nb y I\r\n\r\n\r\nc z O\r\n\r\nd w B\r\ne v I\r\nf u O",
+				"a\tx\tB \nb y\tI\t\n\nc z O\n\nd w B\ne v I\nf u O\n",
+		};
+		ArrayList<String> expected = readCorpus(write("reader.standard", standard));
+		check(expected.size() == 3 && expected.get(0).equals("a x B|b y I"), "标准格式读取的句子不正确：" + expected);
+		for (int i = 0; i < variants.length; i++)
+			check(readCorpus(write("reader." + i, variants[i])).equals(expected), "第" + i + "种格式读取的句子不正确");
+		check(readCorpus(write("reader.empty", "\n\n")).isEmpty(), "只有空行的文件不应有句子");
+	}
+
+	/**
+	 * 多个线程共享一个CRFModel标记句子，结果与单个解码器逐句标记、批量标记以及标记文件的结果相同；句子可以不包含标签列
+	 */
+	static void checkModel() throws Exception {
+		String file = temp("model.shared");
+		new CRFTrainer(TRAIN, TEMPLATE, file, options(1)).train();
+		final CRFModel model = CRFModel.load(file);
+		final List<String[][]> sentences = new ArrayList<String[][]>();
+		List<String[]> rows = new ArrayList<String[]>();
+		List<String> lines = new ArrayList<String>(Files.readAllLines(new File(TRAIN).toPath(), StandardCharsets.UTF_8));
+		lines.add("");
+		for (String line : lines) {
+			if (!line.trim().isEmpty()) {
+				String[] row = line.trim().split("\\s+");
+				rows.add(sentences.size() % 2 == 0 ? row : Arrays.copyOf(row, row.length - 1));
+			} else if (!rows.isEmpty()) {
+				sentences.add(rows.toArray(new String[0][]));
+				rows.clear();
+			}
+		}
+
+		CRFDecoder pooled = model.acquire();
+		check(pooled.model == model, "解码器池中的解码器不属于该模型");
+		model.release(pooled);
+
+		CRFDecoder decoder = model.newDecoder();
+		List<String> expected = new ArrayList<String>();
+		for (String[][] sentence : sentences)
+			expected.add(Arrays.toString(decoder.tag(sentence)));
+		List<String> batch = new ArrayList<String>();
+		for (String[] labels : model.newDecoder().tag(sentences))
+			batch.add(Arrays.toString(labels));
+		check(batch.equals(expected), "批量标记的结果与逐句标记不同");
+
+		String out = temp("model.shared.out");
+		new CRFTagger(model).tagger(TRAIN, out);
+		List<String> tagged = new ArrayList<String>();
+		for (String line : Files.readAllLines(new File(out).toPath(), StandardCharsets.UTF_8))
+			if (!line.isEmpty())
+				tagged.add(line.substring(line.lastIndexOf('\t') + 1));
+		List<String> flat = new ArrayList<String>();
+		for (String labels : expected)
+			flat.addAll(Arrays.asList(labels.substring(1, labels.length() - 1).split(", ")));
+		check(tagged.equals(flat), "标记文件的结果与逐句标记不同");
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+			for (int t = 0; t < 4; t++) {
+				final int seed = t;
+				futures.add(pool.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() {
+						List<Integer> order = new ArrayList<Integer>();
+						for (int i = 0; i < sentences.size(); i++)
+							order.add(i);
+						Collections.shuffle(order, new Random(seed));
+						String[] result = new String[sentences.size()];
+						for (int round = 0; round < 5; round++)
+							for (int i : order)
+								result[i] = Arrays.toString(model.tag(sentences.get(i)));
+						return Arrays.asList(result);
+					}
+				}));
+			}
+			for (Future<List<String>> future : futures)
+				check(future.get().equals(expected), "多线程共享模型标记的结果与逐句标记不同");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * 多线程标记的输出与单线程完全相同，句子的顺序不变；长句子和分成多批的多个句子都检查
+	 */
+	static void checkTagger() throws Exception {
+		String model = temp("model.tagger");
+		new CRFTrainer(TRAIN, TEMPLATE, model, options(1)).train();
+		StringBuilder repeated = new StringBuilder();
+		String train = new String(bytes(TRAIN), StandardCharsets.UTF_8);
+		for (int i = 0; i < 10; i++)
+			repeated.append(train).append('\n');
+		for (String input : new String[] { TEST, write("tagger.in", repeated.toString()) }) {
+			String one = temp("tag.1"), four = temp("tag.4");
+			new CRFTagger(model).tagger(input, one);
+			new CRFTagger(model).tagger(input, four, 4);
+			byte[] a = bytes(one);
+			check(a.length > 0 && Arrays.equals(a, bytes(four)), input + "多线程标记的输出与单线程不同");
+		}
+	}
+
+	/**
+	 * AdaGrad使用相同的种子得到完全相同的模型，训练后的损失函数小于初始值，模型在训练数据上的准确率足够高
+	 */
+	static void checkAdaGrad() throws Exception {
+		TrainOptions options = options(1);
+		options.algorithm = TrainOptions.ADAGRAD;
+		options.epochs = 5;
+		checkStochastic(options, "AdaGrad", true);
+	}
+
+	/**
+	 * 平均感知机使用相同的种子得到完全相同的模型，模型在训练数据上的准确率足够高；感知机不优化对数似然，不检查损失函数
+	 */
+	static void checkPerceptron() throws Exception {
+		TrainOptions options = options(1);
+		options.algorithm = TrainOptions.PERCEPTRON;
+		options.epochs = 5;
+		checkStochastic(options, "平均感知机", false);
+	}
+
+	/**
+	 * L1正则化训练后，写入的模型只保留权值不全为0的特征，非0权值与训练器中的相同，准确率不低于L2模型
+	 */
+	static void checkOWLQN() throws Exception {
+		String l2 = temp("model.l2"), l1 = temp("model.l1");
+		new CRFTrainer(TRAIN, TEMPLATE, l2, options(1)).train();
+		TrainOptions options = options(1);
+		options.l1 = 0.5;
+		options.delta = Double.POSITIVE_INFINITY;
+		CRFTrainer crf = new CRFTrainer(TRAIN, TEMPLATE, l1, options);
+		crf.train();
+
+		CRFParams pruned = ModelFile.read(l1);
+		int K = pruned.K;
+		check(pruned.funWeight.length == pruned.uFeatureAddr.size() * K + pruned.bFeatureAddr.size() * K * K,
+				"删除特征后权值的个数与字典不一致");
+		check(pruned.funWeight.length < crf.crfParams.funWeight.length, "L1正则化没有删除任何特征");
+		checkPruned(pruned.uFeatureAddr, pruned, crf.crfParams, K);
+		checkPruned(pruned.bFeatureAddr, pruned, crf.crfParams, K * K);
+		int nonzero = 0;
+		for (double w : crf.crfParams.funWeight)
+			if (w != 0)
+				nonzero++;
+		for (double w : pruned.funWeight)
+			if (w != 0)
+				nonzero--;
+		check(nonzero == 0, "删除特征时丢失了非0权值");
+		check(bytes(l1).length < bytes(l2).length, "L1模型文件没有变小");
+		check(accuracy(l1, TRAIN) >= accuracy(l2, TRAIN) - 0.01, "L1模型在训练数据上的准确率明显低于L2模型");
+	}
+
+	/**
+	 * 字典中每个特征的width个权值不全为0，且与训练器中同一特征的权值相同
+	 */
+	static void checkPruned(FeatureDict dict, CRFParams pruned, CRFParams full, int width) {
+		FeatureDict fullDict = dict == pruned.uFeatureAddr ? full.uFeatureAddr : full.bFeatureAddr;
+		for (int e = 0; e < dict.size(); e++) {
+			int addr = dict.value(e), fullAddr = fullDict.get(dict.key(e));
+			boolean zero = true;
+			for (int k = 0; k < width; k++) {
+				zero &= pruned.funWeight[addr + k] == 0;
+				check(pruned.funWeight[addr + k] == full.funWeight[fullAddr + k], "特征" + dict.key(e) + "的权值与训练器中不同");
+			}
+			check(!zero, "特征" + dict.key(e) + "的权值全为0，应被删除");
+		}
+	}
+
+	/**
+	 * 用逐句更新的训练算法训练两次，检查模型完全相同、训练数据上的准确率，以及优化对数似然时损失函数下降
+	 */
+	static void checkStochastic(TrainOptions options, String name, boolean likelihood) throws Exception {
+		String first = temp("model.1"), second = temp("model.2");
+		CRFTrainer crf = new CRFTrainer(TRAIN, TEMPLATE, first, options);
+		double[] gradient = new double[crf.crfParams.funWeight.length];
+		double before = crf.loss(gradient);
+		crf.train();
+		double after = crf.loss(gradient);
+		check(!likelihood || after < before / 2, name + "训练后的损失函数" + after + "没有明显小于初始值" + before);
+		new CRFTrainer(TRAIN, TEMPLATE, second, options).train();
+		check(Arrays.equals(bytes(first), bytes(second)), name + "使用相同的种子得到的模型不同");
+		double accuracy = accuracy(first, TRAIN);
+		check(accuracy > 0.9, name + "模型在训练数据上的准确率只有" + accuracy);
+	}
+
+	/**
+	 * 语料文件按chunkTokens分块，各块合起来与内存中的语料完全相同；外存训练的损失函数和梯度与内存中相同，
+	 * 只有一块时训练得到的模型与内存中完全相同
+	 */
+	static void checkCorpusFile() throws IOException {
+		CRFTrainer memory = trainer(TRAIN, temp("model"), 2);
+		FeatureCorpus corpus = memory.corpus;
+		String file = temp("corpus");
+		CorpusFile.Writer out = new CorpusFile.Writer(file, 300);
+		for (int s = 0; s < corpus.sentenceNum; s++) {
+			for (int t = corpus.sentenceStart[s]; t < corpus.sentenceStart[s + 1]; t++) {
+				out.addToken(corpus.labels[t]);
+				for (int f = corpus.uFeatureStart[t]; f < corpus.uFeatureStart[t + 1]; f++)
+					out.addUFeature(corpus.uFeatureArray[f]);
+				for (int f = corpus.bFeatureStart[t]; f < corpus.bFeatureStart[t + 1]; f++)
+					out.addBFeature(corpus.bFeatureArray[f]);
+			}
+			out.endSentence();
+		}
+		out.close();
+
+		CorpusFile in = new CorpusFile(file);
+		try {
+			check(in.chunkNum() > 1, "语料没有分块");
+			check(in.sentenceNum == corpus.sentenceNum && in.tokenNum == corpus.tokenNum, "语料文件的句子数或单词数不正确");
+			int sentences = 0, first = 0;
+			FeatureCorpus chunk = new FeatureCorpus();
+			for (int c = 0; c < in.chunkNum(); c++) {
+				in.read(c, chunk);
+				check(chunk.sentenceStart[0] == 0 && chunk.uFeatureStart[0] == 0 && chunk.bFeatureStart[0] == 0,
+						"第" + c + "块的偏移不从0开始");
+				for (int s = 0; s < chunk.sentenceNum; s++)
+					check(chunk.length(s) == corpus.length(sentences + s), "第" + c + "块第" + s + "个句子的长度不正确");
+				for (int t = 0; t < chunk.tokenNum; t++) {
+					int g = first + t;
+					check(chunk.labels[t] == corpus.labels[g], "单词" + g + "的标签不正确");
+					check(Arrays.equals(Arrays.copyOfRange(chunk.uFeatureArray, chunk.uFeatureStart[t], chunk.uFeatureStart[t + 1]),
+							Arrays.copyOfRange(corpus.uFeatureArray, corpus.uFeatureStart[g], corpus.uFeatureStart[g + 1]))
+							&& Arrays.equals(Arrays.copyOfRange(chunk.bFeatureArray, chunk.bFeatureStart[t], chunk.bFeatureStart[t + 1]),
+									Arrays.copyOfRange(corpus.bFeatureArray, corpus.bFeatureStart[g], corpus.bFeatureStart[g + 1])),
+							"单词" + g + "的特征不正确");
+				}
+				sentences += chunk.sentenceNum;
+				first += chunk.tokenNum;
+			}
+			check(sentences == corpus.sentenceNum && first == corpus.tokenNum, "各块的句子数或单词数之和不正确");
+			sameCorpus(in.readAll(), corpus);
+		} finally {
+			in.close();
+		}
+
+		TrainOptions options = options(2);
+		options.spillFile = temp("spill");
+		options.chunkTokens = 300;
+		CRFTrainer spill = new CRFTrainer(TRAIN, TEMPLATE, temp("model"), options);
+		randomWeights(memory, 1, 6);
+		randomWeights(spill, 1, 6);
+		int n = memory.crfParams.funWeight.length;
+		double[] expected = new double[n], gradient = new double[n];
+		double expectedLoss = memory.loss(expected);
+		close(spill.loss(gradient), expectedLoss, "外存训练与内存中的损失函数");
+		for (int j = 0; j < n; j++)
+			close(gradient[j], expected[j], "外存训练与内存中的梯度");
+		// 第二次计算使用每一块保存的分片
+		close(spill.loss(gradient), expectedLoss, "外存训练再次计算的损失函数");
+		for (int j = 0; j < n; j++)
+			close(gradient[j], expected[j], "外存训练再次计算的梯度");
+
+		String inMemory = temp("model.memory"), oneChunk = temp("model.spill");
+		new CRFTrainer(TRAIN, TEMPLATE, inMemory, options(2)).train();
+		options.chunkTokens = 1 << 20;
+		new CRFTrainer(TRAIN, TEMPLATE, oneChunk, options).train();
+		check(Arrays.equals(bytes(inMemory), bytes(oneChunk)), "只有一块的外存训练得到的模型与内存中不同");
+	}
+
+	/**
+	 * 第一次训练写入缓存，之后内存中和外存训练都读取缓存，得到的模型与不使用缓存时完全相同；参数改变时不使用原来的缓存
+	 */
+	static void checkCache() throws IOException {
+		String plain = temp("model.plain"), miss = temp("model.miss"), hit = temp("model.hit"), spill = temp("model.spill");
+		new CRFTrainer(TRAIN, TEMPLATE, plain, options(1)).train();
+		TrainOptions options = options(1);
+		options.cacheDir = temp("cache");
+		new CRFTrainer(TRAIN, TEMPLATE, miss, options).train();
+		File[] files = new File(options.cacheDir).listFiles();
+		check(files.length == 2, "缓存目录中应有2个文件，实际为" + files.length);
+		new CRFTrainer(TRAIN, TEMPLATE, hit, options).train();
+		check(Arrays.equals(bytes(plain), bytes(miss)) && Arrays.equals(bytes(plain), bytes(hit)), "使用缓存得到的模型与不使用缓存时不同");
+
+		options.spillFile = temp("spill.unused");
+		new CRFTrainer(TRAIN, TEMPLATE, spill, options).train();
+		check(Arrays.equals(bytes(plain), bytes(spill)), "外存训练读取缓存得到的模型与不使用缓存时不同");
+		check(!new File(options.spillFile).exists(), "命中缓存时不应写入spillFile");
+
+		options.spillFile = null;
+		options.threshold = 2;
+		new CRFTrainer(TRAIN, TEMPLATE, temp("model.threshold"), options).train();
+		check(new File(options.cacheDir).listFiles().length == 4, "threshold改变后没有写入新的缓存");
+		for (File f : new File(options.cacheDir).listFiles())
+			f.delete();
+	}
+
+	/**
+	 * 每个候选模型使用多个线程、开发集比训练集小或大时，sweep都能正确解码开发集，返回候选之一并写入可用的模型
+	 */
+	static void checkSweep() throws Exception {
+		String small = head(TRAIN, 25), train = head(TRAIN, 50), model = temp("model.sweep");
+
+		// 开发集比训练集小
+		double delta = new CRFTrainer(train, TEMPLATE, model, options(4)).sweep(new double[] { 0.5, 1 }, small);
+		check(delta == 0.5 || delta == 1, "sweep返回的delta不是候选之一：" + delta);
+		check(accuracy(model, small) > 0.9, "sweep写入的模型在开发集上的准确率太低");
+
+		// 开发集比训练集大
+		delta = new CRFTrainer(small, TEMPLATE, model, options(4)).sweep(new double[] { 0.5, 1 }, TRAIN);
+		check(delta == 0.5 || delta == 1, "sweep返回的delta不是候选之一：" + delta);
+	}
+
+	/**
+	 * 每一折使用多个线程时，crossValidate返回每一折和总的准确率，都在[0, 1]之间，并且不写入模型文件
+	 */
+	static void checkCrossValidate() throws IOException {
+		String model = temp("model.cv");
+		double[][] p = new CRFTrainer(head(TRAIN, 50), TEMPLATE, model, options(4)).crossValidate(2);
+		check(p.length == 3, "crossValidate的结果数不正确：" + p.length);
+		for (double[] fold : p)
+			check(fold[0] >= 0 && fold[0] <= 1 && fold[1] >= 0 && fold[1] <= 1, "准确率不在[0, 1]之间");
+		// 总的准确率是各折按句子数和单词数的加权平均
+		for (int i = 0; i < 2; i++)
+			check(p[2][i] >= Math.min(p[0][i], p[1][i]) && p[2][i] <= Math.max(p[0][i], p[1][i]), "交叉验证总的准确率不在各折之间");
+		check(!new File(model).exists(), "crossValidate不应写入模型文件");
+	}
+
+	/**
+	 * 评价只读取参数的快照：不评价、前台评价、后台评价、抽样评价和使用开发集评价时，训练得到的模型都完全相同
+	 */
+	static void checkEvaluation() throws IOException {
+		TrainOptions options = options(2);
+		options.evalInterval = 0;
+		String expected = temp("model.noeval");
+		new CRFTrainer(TRAIN, TEMPLATE, expected, options).train();
+		options.evalInterval = 1;
+		for (int mode = 0; mode < 4; mode++) {
+			options.evalBackground = mode % 2 == 1;
+			options.evalSample = mode == 2 ? 20 : 0;
+			options.devFile = mode == 3 ? head(TRAIN, 25) : null;
+			String model = temp("model.eval" + mode);
+			new CRFTrainer(TRAIN, TEMPLATE, model, options).train();
+			check(Arrays.equals(bytes(expected), bytes(model)), "第" + mode + "种评价方式改变了训练得到的模型");
+		}
+	}
+
+	/**
+	 * 提前停止后写入的是评价最好的一次迭代的参数：模型在开发集上的准确率与输出的最好准确率相同
+	 */
+	static void checkEarlyStopping() throws Exception {
+		String dev = tail(TRAIN, 50), model = temp("model.early");
+		TrainOptions options = options(1);
+		options.devFile = dev;
+		options.patience = 2;
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(log, true, "UTF-8"));
+		try {
+			new CRFTrainer(head(TRAIN, 50), TEMPLATE, model, options).train();
+		} finally {
+			System.setOut(stdout);
+		}
+		Matcher m = Pattern.compile("使用第(\\d+)次迭代的参数.*单词准确率:([0-9.]+)").matcher(log.toString("UTF-8"));
+		check(m.find(), "提前停止后没有恢复最好的参数");
+		double best = Double.parseDouble(m.group(2));
+		check(Math.abs(accuracy(model, dev) - best) < 1e-6, "写入的模型在开发集上的准确率与第" + m.group(1) + "次迭代的" + best + "不同");
+	}
+
+	/**
+	 * 热启动时原模型的每个权值按特征字符串和标签名复制到新的地址，新标签的权值为0；
+	 * 在相同的数据上热启动，初始的损失函数与原模型训练结束时相同
+	 */
+	static void checkWarmStart() throws Exception {
+		// 原模型的训练数据中没有标签I，热启动后标签数增加
+		StringBuilder content = new StringBuilder();
+		for (String line : Files.readAllLines(new File(head(TRAIN, 25)).toPath(), StandardCharsets.UTF_8))
+			content.append(line.endsWith(" I") ? line.substring(0, line.length() - 1) + "O" : line).append('\n');
+		String init = temp("model.init");
+		new CRFTrainer(write("init.data", content.toString()), TEMPLATE, init, options(1)).train();
+		CRFParams old = ModelFile.read(init);
+		TrainOptions options = options(1);
+		options.initModel = init;
+		CRFParams warm = new CRFTrainer(TRAIN, TEMPLATE, temp("model.warm"), options).crfParams;
+		check(old.K == 2 && warm.K == 3, "热启动后的标签数不正确：" + old.K + " -> " + warm.K);
+		int[] label = new int[warm.K];
+		Arrays.fill(label, -1);
+		for (int a = 0; a < old.K; a++)
+			label[warm.labels.indexOf(old.labels.get(a))] = a;
+		for (int e = 0; e < old.uFeatureAddr.size(); e++) {
+			int from = old.uFeatureAddr.value(e), to = warm.uFeatureAddr.get(old.uFeatureAddr.key(e));
+			check(to >= 0, "热启动后丢失了特征" + old.uFeatureAddr.key(e));
+			for (int k = 0; k < warm.K; k++)
+				check(warm.funWeight[to + k] == (label[k] < 0 ? 0 : old.funWeight[from + label[k]]),
+						"特征" + old.uFeatureAddr.key(e) + "的权值没有正确复制");
+		}
+		for (int e = 0; e < old.bFeatureAddr.size(); e++) {
+			int from = old.bFeatureAddr.value(e), to = warm.bFeatureAddr.get(old.bFeatureAddr.key(e));
+			check(to >= 0, "热启动后丢失了特征" + old.bFeatureAddr.key(e));
+			for (int m = 0; m < warm.K; m++)
+				for (int k = 0; k < warm.K; k++)
+					check(warm.funWeight[to + m * warm.K + k] == (label[m] < 0 || label[k] < 0 ? 0
+							: old.funWeight[from + label[m] * old.K + label[k]]), "特征" + old.bFeatureAddr.key(e) + "的权值没有正确复制");
+		}
+
+		String trained = temp("model.trained");
+		CRFTrainer first = new CRFTrainer(TRAIN, TEMPLATE, trained, options(1));
+		first.train();
+		options.initModel = trained;
+		CRFTrainer again = new CRFTrainer(TRAIN, TEMPLATE, temp("model.again"), options);
+		double[] gradient = new double[first.crfParams.funWeight.length];
+		close(again.loss(gradient), first.loss(gradient), "热启动时初始的损失函数");
+	}
+
+	/**
+	 * AdaGrad热启动时，新数据中不出现的特征没有梯度，其权值按正则项向0衰减，不改变符号
+	 */
+	static void checkAdaGradWarmStart() throws Exception {
+		String init = temp("model.init"), model = temp("model.adagrad"), part = head(TRAIN, 10);
+		new CRFTrainer(TRAIN, TEMPLATE, init, options(1)).train();
+		FeatureDict present = new CRFTrainer(part, TEMPLATE, temp("model"), options(1)).crfParams.uFeatureAddr;
+		TrainOptions options = options(1);
+		options.algorithm = TrainOptions.ADAGRAD;
+		options.epochs = 2;
+		options.initModel = init;
+		new CRFTrainer(part, TEMPLATE, model, options).train();
+		CRFParams old = ModelFile.read(init), warm = ModelFile.read(model);
+		int absent = 0;
+		for (int e = 0; e < old.uFeatureAddr.size(); e++) {
+			String key = old.uFeatureAddr.key(e);
+			if (present.get(key) >= 0)
+				continue;
+			absent++;
+			int from = old.uFeatureAddr.value(e), to = warm.uFeatureAddr.get(key);
+			for (int k = 0; k < old.K; k++) {
+				double a = old.funWeight[from + k], b = warm.funWeight[to + warm.labels.indexOf(old.labels.get(k))];
+				check(a == 0 ? b == 0 : b / a >= 0 && b / a < 1, "新数据中不出现的特征" + key + "的权值没有按正则项衰减：" + a + " -> " + b);
+			}
+		}
+		check(absent > 0, "训练数据的前10个句子包含了所有特征");
+	}
+
+	/**
+	 * 相同的线程数得到完全相同的损失函数、梯度和模型文件，不同的线程数只有舍入误差；同一个训练器重复计算的结果不变
+	 */
+	static void checkThreads() throws IOException {
+		CRFTrainer one = trainer(TRAIN, temp("model"), 1);
+		CRFTrainer three = trainer(TRAIN, temp("model"), 3);
+		CRFTrainer again = trainer(TRAIN, temp("model"), 3);
+		randomWeights(one, 1, 5);
+		randomWeights(three, 1, 5);
+		randomWeights(again, 1, 5);
+		int n = one.crfParams.funWeight.length;
+		double[] g1 = new double[n], g3 = new double[n], g3again = new double[n];
+		double l1 = one.loss(g1);
+		double l3 = three.loss(g3);
+		double l3again = again.loss(g3again);
+		check(l3 == l3again && Arrays.equals(g3, g3again), "相同的线程数得到的损失函数或梯度不同");
+		close(l3, l1, "3个线程与1个线程的损失函数");
+		for (int j = 0; j < n; j++)
+			close(g3[j], g1[j], "3个线程与1个线程的梯度");
+
+		// 重复使用的梯度缓冲区在两次计算之间被正确清零：换一组权值计算后再换回来，结果不变
+		randomWeights(three, 2, 6);
+		three.loss(new double[n]);
+		randomWeights(three, 1, 5);
+		double[] reused = new double[n];
+		check(three.loss(reused) == l3 && Arrays.equals(reused, g3), "重复计算得到的损失函数或梯度不同");
+
+		String[] models = { temp("thread.a"), temp("thread.b") };
+		for (String model : models)
+			trainer(TRAIN, model, 3).train();
+		check(Arrays.equals(bytes(models[0]), bytes(models[1])), "相同的线程数训练得到的模型文件不同");
+	}
+
+	/**
+	 * 特征频次阈值为1、delta为1的训练器
+	 */
+	static TrainOptions options(int threadNum) {
+		TrainOptions options = new TrainOptions();
+		options.threadNum = threadNum;
+		return options;
+	}
+
+	static CRFTrainer trainer(String trainFile, String modelFile, int threadNum) throws IOException {
+		return new CRFTrainer(trainFile, TEMPLATE, modelFile, 1, 1, threadNum);
+	}
+
+	/**
+	 * 把权值设为均值为0、标准差为scale的随机数，并更新转移分数缓存
+	 */
+	static void randomWeights(CRFTrainer crf, double scale, long seed) {
+		Random random = new Random(seed);
+		double[] w = crf.crfParams.funWeight;
+		for (int j = 0; j < w.length; j++)
+			w[j] = random.nextGaussian() * scale;
+		crf.initTransitionCache();
+	}
+
+	/**
+	 * 训练得到的状态特征或转移特征字符串
+	 */
+	static Set<String> keys(CRFTrainer crf, boolean unigram) {
+		FeatureDict dict = unigram ? crf.crfParams.uFeatureAddr : crf.crfParams.bFeatureAddr;
+		Set<String> keys = new HashSet<String>();
+		for (int e = 0; e < dict.size(); e++)
+			keys.add(dict.key(e));
+		return keys;
+	}
+
+	static int sentenceNum(CRFTrainer crf) {
+		return crf.corpus.sentenceNum;
+	}
+
+	static int length(CRFTrainer crf, int s) {
+		return crf.corpus.length(s);
+	}
+
+	/**
+	 * 句子s第i个单词标记为k时状态特征函数的加权和
+	 */
+	static double state(CRFTrainer crf, int s, int i, int k) {
+		return crf.sumOfuFunctions(crf.corpus.sentenceStart[s] + i, k);
+	}
+
+	/**
+	 * 句子s第i-1个单词标记为m、第i个单词标记为k时转移特征函数的加权和
+	 */
+	static double trans(CRFTrainer crf, int s, int i, int m, int k) {
+		return crf.sumOfbFuntions(crf.corpus.sentenceStart[s] + i, m, k);
+	}
+
+	/**
+	 * 用训练器的缩放前向后向计算句子s的log(zeta)
+	 * @param marginal 不为null时写入位置i标记为k的边缘概率marginal[i * K + k]
+	 */
+	static double forwardBackward(CRFTrainer crf, int s, double[] marginal) {
+		return forwardBackward(crf, s, marginal, new Lattice(crf.crfParams.K));
+	}
+
+	static double forwardBackward(CRFTrainer crf, int s, double[] marginal, Lattice lattice) {
+		crf.computeMs(s, lattice);
+		crf.alpha(lattice);
+		if (marginal != null) {
+			crf.beta(lattice);
+			for (int i = 0; i < lattice.length * lattice.K; i++)
+				marginal[i] = lattice.alpha[i] * lattice.beta[i];
+		}
+		return crf.logZeta(lattice);
+	}
+
+	/**
+	 * 句子s标记为y时所有特征函数的加权和
+	 */
+	static double pathScore(CRFTrainer crf, int s, int[] y) {
+		double score = 0;
+		for (int i = 0; i < y.length; i++) {
+			score += state(crf, s, i, y[i]);
+			if (i > 0)
+				score += trans(crf, s, i, y[i - 1], y[i]);
+		}
+		return score;
+	}
+
+	/**
+	 * 第p个长度为n的标签序列，即p的K进制表示
+	 */
+	static int[] path(int p, int K, int n) {
+		int[] y = new int[n];
+		for (int i = n - 1; i >= 0; i--, p /= K)
+			y[i] = p % K;
+		return y;
+	}
+
+	static double logSumExp(double[] x) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double v : x)
+			max = Math.max(max, v);
+		double sum = 0;
+		for (double v : x)
+			sum += Math.exp(v - max);
+		return max + Math.log(sum);
+	}
+
+	/**
+	 * 把文件中的前n * length个单词每length个组成一个句子，写入临时文件，用于需要短句子的检查
+	 * @return 临时文件名
+	 */
+	static String sentences(String file, int n, int length) throws IOException {
+		StringBuilder out = new StringBuilder();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			int tokens = 0;
+			while (tokens < n * length && (line = in.readLine()) != null) {
+				if (line.trim().isEmpty())
+					continue;
+				out.append(line).append('\n');
+				if (++tokens % length == 0)
+					out.append('\n');
+			}
+		} finally {
+			in.close();
+		}
+		return write("sentences" + n + "x" + length, out.toString());
+	}
+
+	/**
+	 * 复制文件的前n个句子到临时文件
+	 * @return 临时文件名
+	 */
+	static String head(String file, int n) throws IOException {
+		String name = temp("head" + n);
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		Writer out = new OutputStreamWriter(new FileOutputStream(name), StandardCharsets.UTF_8);
+		try {
+			String line;
+			while (n > 0 && (line = in.readLine()) != null) {
+				out.write(line);
+				out.write('\n');
+				if (line.trim().isEmpty())
+					n--;
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		return name;
+	}
+
+	/**
+	 * 复制文件的前n个句子之后的所有句子到临时文件
+	 * @return 临时文件名
+	 */
+	static String tail(String file, int n) throws IOException {
+		String name = temp("tail" + n);
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		Writer out = new OutputStreamWriter(new FileOutputStream(name), StandardCharsets.UTF_8);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (n <= 0) {
+					out.write(line);
+					out.write('\n');
+				}
+				if (line.trim().isEmpty())
+					n--;
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+		return name;
+	}
+
+	/**
+	 * 把内容以UTF-8写入临时文件
+	 * @return 临时文件名
+	 */
+	static String write(String name, String content) throws IOException {
+		String file = temp(name);
+		Files.write(new File(file).toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * 用CorpusReader读取文件中的所有句子，每个句子的各行以"|"连接，各列以空格连接
+	 */
+	static ArrayList<String> readCorpus(String file) throws IOException {
+		ArrayList<String> sentences = new ArrayList<String>();
+		CorpusReader in = new CorpusReader(file);
+		try {
+			int col = in.peekColumns();
+			if (col == 0)
+				return sentences;
+			TokenCorpus tokens = new TokenCorpus(col);
+			while (in.readSentence(tokens) > 0) {
+			}
+			for (int s = 0; s < tokens.sentenceNum(); s++) {
+				StringBuilder sentence = new StringBuilder();
+				for (int t = tokens.first(s); t < tokens.first(s) + tokens.length(s); t++) {
+					if (sentence.length() > 0)
+						sentence.append('|');
+					for (int c = 0; c < col; c++)
+						sentence.append(c == 0 ? "" : " ").append(tokens.columns[c].key(tokens.symbol(t, c)));
+				}
+				sentences.add(sentence.toString());
+			}
+		} finally {
+			in.close();
+		}
+		return sentences;
+	}
+
+	/**
+	 * 用模型标记文件，最后一列的标签与原文件相同的单词所占的比例
+	 */
+	static double accuracy(String model, String file) throws Exception {
+		String out = temp("accuracy.out");
+		new CRFTagger(model).tagger(file, out);
+		List<String> gold = new ArrayList<String>(), tagged = new ArrayList<String>();
+		for (String line : Files.readAllLines(new File(file).toPath(), StandardCharsets.UTF_8))
+			if (!line.trim().isEmpty()) {
+				String[] row = line.trim().split("\\s+");
+				gold.add(row[row.length - 1]);
+			}
+		for (String line : Files.readAllLines(new File(out).toPath(), StandardCharsets.UTF_8))
+			if (!line.isEmpty())
+				tagged.add(line.substring(line.lastIndexOf('\t') + 1));
+		check(gold.size() == tagged.size(), "标记结果的行数不正确");
+		int correct = 0;
+		for (int i = 0; i < gold.size(); i++)
+			if (gold.get(i).equals(tagged.get(i)))
+				correct++;
+		return (double) correct / gold.size();
+	}
+
+	static void sameCorpus(FeatureCorpus a, FeatureCorpus b) {
+		check(a.sentenceNum == b.sentenceNum && a.tokenNum == b.tokenNum, "语料的句子数或单词数不同");
+		int t = b.tokenNum;
+		check(same(a.sentenceStart, b.sentenceStart, b.sentenceNum + 1), "语料的sentenceStart不同");
+		check(same(a.uFeatureStart, b.uFeatureStart, t + 1) && same(a.bFeatureStart, b.bFeatureStart, t + 1), "语料的特征偏移不同");
+		check(same(a.uFeatureArray, b.uFeatureArray, b.uFeatureStart[t]) && same(a.bFeatureArray, b.bFeatureArray, b.bFeatureStart[t]),
+				"语料的特征不同");
+		check(same(a.labels, b.labels, t), "语料的标签不同");
+	}
+
+	static boolean same(int[] a, int[] b, int n) {
+		return Arrays.equals(Arrays.copyOf(a, n), Arrays.copyOf(b, n));
+	}
+
+	static byte[] toBytes(FeatureDict dict) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		dict.write(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static byte[] bytes(String file) throws IOException {
+		return Files.readAllBytes(new File(file).toPath());
+	}
+
+	/**
+	 * 临时目录中的文件名
+	 */
+	static String temp(String name) {
+		return new File(dir, name).getPath();
+	}
+
+	/**
+	 * 检查actual与expected的相对误差不超过1e-9
+	 */
+	static void close(double actual, double expected, String message) {
+		check(Math.abs(actual - expected) <= 1e-9 * Math.max(1, Math.abs(expected)), message + "不正确：" + actual + "，应为" + expected);
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new IllegalStateException("自检失败：" + message);
+	}
+}